@@ -0,0 +1,131 @@
+package org.fxmisc.livedirs;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Updates of the directory tree, without any file-system access: the
+ * trees are generated in memory, under a path that need not exist.
+ */
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ModelBenchmark {
+
+    private static final Path ROOT = Paths.get("/livedirs-bench").toAbsolutePath();
+    private static final String INITIATOR = "bench";
+
+    /**
+     * Returns an empty tree with the {@link #ROOT} top-level directory.
+     * Updates are delivered on the calling thread.
+     */
+    static LiveDirsTree<String> newTree() {
+        LiveDirsTree<String> model = new LiveDirsTree<>(INITIATOR, Runnable::run);
+        model.addTopLevelDirectory(ROOT);
+        return model;
+    }
+
+    @State(Scope.Thread)
+    public static class SyncState {
+
+        @Param({ "WIDE", "DEEP", "LARGE" })
+        SyntheticTree shape;
+
+        PathNode tree;
+
+        /** Tree that already contains {@link #tree}. */
+        LiveDirsTree<String> synced;
+
+        /** Empty tree, replaced before each invocation. */
+        LiveDirsTree<String> empty;
+
+        @Setup
+        public void createTree() {
+            tree = shape.toPathNode(ROOT);
+            synced = newTree();
+            synced.sync(tree);
+        }
+
+        @Setup(Level.Invocation)
+        public void createModel() {
+            empty = newTree();
+        }
+    }
+
+    /**
+     * Populates an empty tree from a scanned tree, as when a top-level
+     * directory is added.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public LiveDirsTree<String> initialSync(SyncState state) {
+        state.empty.sync(state.tree);
+        return state.empty;
+    }
+
+    /**
+     * Syncs a tree with an identical tree, as when a directory is
+     * refreshed and nothing changed.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public LiveDirsTree<String> resync(SyncState state) {
+        state.synced.sync(state.tree);
+        return state.synced;
+    }
+
+    @State(Scope.Thread)
+    public static class UpdateState {
+        static final int FILES = 1_000;
+
+        LiveDirsTree<String> model;
+        Path[] files;
+        FileTime lastModified = FileTime.fromMillis(0);
+
+        @Setup
+        public void createModel() {
+            model = newTree();
+            Path dir = ROOT.resolve("dir");
+            model.addDirectory(dir, INITIATOR);
+            files = new Path[FILES];
+            for(int i = 0; i < FILES; ++i) {
+                files[i] = dir.resolve("file" + i + ".txt");
+            }
+        }
+    }
+
+    /**
+     * Adds files to a directory, one by one, and deletes them again, as when
+     * processing watcher events. Reported per added or deleted file.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @OperationsPerInvocation(2 * UpdateState.FILES)
+    public void addAndDeleteFiles(UpdateState state) {
+        for(Path file: state.files) {
+            state.model.addFile(file, INITIATOR, state.lastModified);
+        }
+        for(Path file: state.files) {
+            state.model.delete(file, INITIATOR);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package org.fxmisc.livedirs;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Scanning a directory tree from disk with {@link PathNode#getTree}, as done
+ * when a top-level directory is added or refreshed. After the first
+ * iteration, the tree is served from the OS file-system cache, so this
+ * measures the scanner rather than the disk.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ScanBenchmark {
+
+    @Param({ "WIDE", "DEEP", "LARGE" })
+    SyntheticTree shape;
+
+    private Path root;
+
+    @Setup
+    public void createTree() throws IOException {
+        root = Files.createTempDirectory("livedirs-bench");
+        shape.create(root);
+    }
+
+    @TearDown
+    public void deleteTree() throws IOException {
+        SyntheticTree.delete(root);
+    }
+
+    @Benchmark
+    public PathNode getTree() throws IOException {
+        return PathNode.getTree(root, PathFilter.ACCEPT_ALL, AttributeReader.BASIC);
+    }
+}
@@ -0,0 +1,127 @@
+package org.fxmisc.livedirs;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Shapes of generated directory trees that the benchmarks run against.
+ * A tree can be generated on disk or directly as a {@link PathNode}.
+ */
+enum SyntheticTree {
+
+    /** One directory with 100,000 files. */
+    WIDE(new int[] { 100_000 }, 0),
+
+    /** 1,000 nested directories with 10 files each. */
+    DEEP(new int[0], 1_000),
+
+    /** 100 &times; 100 directories with 100 files each, one million files in total. */
+    LARGE(new int[] { 100, 100, 100 }, 0);
+
+    private static final FileTime MTIME = FileTime.fromMillis(0);
+
+    /**
+     * Number of entries on each level of a balanced tree; the last number
+     * is the number of files in each innermost directory.
+     */
+    private final int[] fanOut;
+
+    /** Depth of a degenerate tree, with 10 files in each directory. */
+    private final int depth;
+
+    SyntheticTree(int[] fanOut, int depth) {
+        this.fanOut = fanOut;
+        this.depth = depth;
+    }
+
+    void create(Path root) throws IOException {
+        if(depth > 0) {
+            Path dir = root;
+            for(int d = 0; d < depth; ++d) {
+                createFiles(dir, 10);
+                dir = Files.createDirectory(dir.resolve("dir"));
+            }
+        } else {
+            create(root, 0);
+        }
+    }
+
+    private void create(Path dir, int level) throws IOException {
+        if(level == fanOut.length - 1) {
+            createFiles(dir, fanOut[level]);
+        } else {
+            for(int i = 0; i < fanOut[level]; ++i) {
+                create(Files.createDirectory(dir.resolve("dir" + i)), level + 1);
+            }
+        }
+    }
+
+    private static void createFiles(Path dir, int n) throws IOException {
+        for(int i = 0; i < n; ++i) {
+            Files.createFile(dir.resolve("file" + i + ".txt"));
+        }
+    }
+
+    /**
+     * Returns the tree that {@link #create(Path)} would create, without
+     * touching the file-system.
+     */
+    PathNode toPathNode(Path root) {
+        if(depth > 0) {
+            return deepNode(root, 0);
+        } else {
+            return node(root, 0);
+        }
+    }
+
+    private PathNode deepNode(Path dir, int d) {
+        List<PathNode> children = files(dir, 10);
+        if(d < depth - 1) {
+            children.add(deepNode(dir.resolve("dir"), d + 1));
+        }
+        return PathNode.directory(dir, MTIME, children);
+    }
+
+    private PathNode node(Path dir, int level) {
+        if(level == fanOut.length - 1) {
+            return PathNode.directory(dir, MTIME, files(dir, fanOut[level]));
+        } else {
+            List<PathNode> children = new ArrayList<>(fanOut[level]);
+            for(int i = 0; i < fanOut[level]; ++i) {
+                children.add(node(dir.resolve("dir" + i), level + 1));
+            }
+            return PathNode.directory(dir, MTIME, children);
+        }
+    }
+
+    private static List<PathNode> files(Path dir, int n) {
+        List<PathNode> files = new ArrayList<>(n + 1);
+        for(int i = 0; i < n; ++i) {
+            files.add(PathNode.file(dir.resolve("file" + i + ".txt"), MTIME));
+        }
+        return files;
+    }
+
+    static void delete(Path root) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
@@ -0,0 +1,99 @@
+package org.fxmisc.livedirs;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.reactfx.Subscription;
+
+/**
+ * End-to-end latency from creating a file on disk to the creation being
+ * reported by the model on the client thread: the watch service, the
+ * {@link DirWatcher} I/O thread, the hand-over to the client thread and the
+ * model update. How quickly the operating system signals the change
+ * dominates; on platforms where the JDK polls for changes, this is in the
+ * order of seconds.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class WatcherBenchmark {
+
+    private ExecutorService clientThread;
+    private LiveDirs<String, Path> liveDirs;
+    private Path root;
+    private int counter = 0;
+
+    private volatile Path expected;
+    private volatile CompletableFuture<Void> reported;
+    private Subscription subscription;
+
+    @Setup
+    public void startWatching() throws Exception {
+        root = Files.createTempDirectory("livedirs-bench");
+        clientThread = Executors.newSingleThreadExecutor();
+        liveDirs = LiveDirs.getInstance("external", clientThread);
+        clientThread.submit(() -> {
+            liveDirs.addTopLevelDirectory(root);
+            subscription = liveDirs.tree().creations().subscribe(u -> {
+                if(u.getPath().equals(expected)) {
+                    reported.complete(null);
+                }
+            });
+        }).get();
+    }
+
+    /**
+     * Files are deleted after each iteration, so that the watched directory
+     * does not grow without bound. They are created directly in the watched
+     * directory, since files created in a new subdirectory before it is
+     * watched are only picked up by its initial scan.
+     */
+    @TearDown(Level.Iteration)
+    public void deleteFiles() throws IOException {
+        for(int i = 0; i < counter; ++i) {
+            Files.deleteIfExists(root.resolve("file" + i + ".txt"));
+        }
+        counter = 0;
+    }
+
+    @TearDown
+    public void stopWatching() throws Exception {
+        clientThread.submit(() -> {
+            subscription.unsubscribe();
+            liveDirs.dispose();
+        }).get();
+        clientThread.shutdown();
+        SyntheticTree.delete(root);
+    }
+
+    @Benchmark
+    public void createToCreationLatency() throws IOException, InterruptedException, ExecutionException, TimeoutException {
+        Path file = root.resolve("file" + (counter++) + ".txt");
+        reported = new CompletableFuture<>();
+        expected = file;
+        Files.createFile(file);
+        reported.get(1, TimeUnit.MINUTES);
+    }
+}
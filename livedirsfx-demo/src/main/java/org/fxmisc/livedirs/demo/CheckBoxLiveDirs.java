@@ -34,7 +34,7 @@ public class CheckBoxLiveDirs extends Application {
             // create a LiveDirs instance for use on the JavaFX Application Thread
             // and make it display its items as though they were CheckBoxTreeItems
             LiveDirs<ChangeSource, CheckBoxContentImpl> dirs = new LiveDirs<>(ChangeSource.EXTERNAL,
-                    CheckBoxContentImpl::getPath, CheckBoxContentImpl::new, Platform::runLater);
+                    CheckBoxContentImpl::new, Platform::runLater);
 
             // set directory to watch
             dirs.addTopLevelDirectory(Paths.get(System.getProperty("user.home"), "Documents").toAbsolutePath());
@@ -0,0 +1,82 @@
+package org.fxmisc.livedirs;
+
+import static java.nio.file.LinkOption.*;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Reads the attributes of an entry along with the {@link EntryAttributes}
+ * to capture, with the same system calls as plain
+ * {@link BasicFileAttributes}, except for one more for symbolic links.
+ */
+class AttributeReader {
+
+    /** Reader that captures no attributes. */
+    static final AttributeReader BASIC = new AttributeReader(EnumSet.noneOf(EntryAttributes.Kind.class));
+
+    static final class Attributes {
+        /** Attributes of the entry, or of the link target for a link. */
+        final BasicFileAttributes basic;
+
+        /** Captured attributes, or {@code null} if none are captured. */
+        final EntryAttributes captured;
+
+        Attributes(BasicFileAttributes basic, EntryAttributes captured) {
+            this.basic = basic;
+            this.captured = captured;
+        }
+    }
+
+    private final boolean size;
+    private final boolean permissions;
+    private final boolean links;
+
+    AttributeReader(Set<EntryAttributes.Kind> kinds) {
+        this.size = kinds.contains(EntryAttributes.Kind.SIZE);
+        this.permissions = kinds.contains(EntryAttributes.Kind.PERMISSIONS)
+                && FileSystems.getDefault().supportedFileAttributeViews().contains("posix");
+        this.links = kinds.contains(EntryAttributes.Kind.SYMBOLIC_LINK);
+    }
+
+    private boolean capturesNothing() {
+        return !size && !permissions && !links;
+    }
+
+    Attributes read(Path path) throws IOException {
+        Class<? extends BasicFileAttributes> type = permissions ? PosixFileAttributes.class : BasicFileAttributes.class;
+        BasicFileAttributes attrs;
+        boolean symbolicLink = false;
+        if(links) {
+            // lstat first, follow only actual links
+            attrs = Files.readAttributes(path, type, NOFOLLOW_LINKS);
+            if(attrs.isSymbolicLink()) {
+                symbolicLink = true;
+                try {
+                    attrs = Files.readAttributes(path, type);
+                } catch(IOException e) {
+                    // dangling link, keep the attributes of the link itself
+                }
+            }
+        } else {
+            attrs = Files.readAttributes(path, type);
+        }
+
+        if(capturesNothing()) {
+            return new Attributes(attrs, null);
+        }
+        Set<PosixFilePermission> perms = permissions
+                ? Collections.unmodifiableSet(((PosixFileAttributes) attrs).permissions())
+                : null;
+        long sz = size ? attrs.size() : -1;
+        return new Attributes(attrs, new EntryAttributes(sz, perms, symbolicLink));
+    }
+}
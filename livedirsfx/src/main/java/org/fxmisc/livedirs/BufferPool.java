@@ -0,0 +1,52 @@
+package org.fxmisc.livedirs;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of direct byte buffers of one size, so that reading and writing
+ * files does not allocate a buffer per operation. Buffers are acquired and
+ * released on any thread; at most {@code maxPooled} idle buffers are kept,
+ * the rest are left to the garbage collector.
+ */
+final class BufferPool {
+    private final int bufferSize;
+    private final int maxPooled;
+    private final ConcurrentLinkedQueue<ByteBuffer> idle = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger idleCount = new AtomicInteger();
+
+    BufferPool(int bufferSize, int maxPooled) {
+        this.bufferSize = bufferSize;
+        this.maxPooled = maxPooled;
+    }
+
+    int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * Returns a cleared, big-endian buffer of {@link #getBufferSize()}
+     * bytes, which should be {@linkplain #release(ByteBuffer) released}
+     * when no longer used.
+     */
+    ByteBuffer acquire() {
+        ByteBuffer buffer = idle.poll();
+        if(buffer == null) {
+            return ByteBuffer.allocateDirect(bufferSize);
+        }
+        idleCount.decrementAndGet();
+        buffer.clear();
+        buffer.order(ByteOrder.BIG_ENDIAN);
+        return buffer;
+    }
+
+    void release(ByteBuffer buffer) {
+        if(idleCount.incrementAndGet() <= maxPooled) {
+            idle.offer(buffer);
+        } else {
+            idleCount.decrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package org.fxmisc.livedirs;
+
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Pools of charset encoders and decoders, which are costly to create and
+ * can only be used by one thread at a time. A coder is borrowed for one
+ * operation and released afterwards, so coders are reused by the I/O
+ * thread and by the threads of concurrent operations alike. Like
+ * {@link String#getBytes(Charset)} and {@link Charset#decode}, the coders
+ * replace malformed input and unmappable characters.
+ */
+final class CharsetCoders {
+    private final int maxPooled;
+    private final ConcurrentMap<Charset, BlockingQueue<CharsetEncoder>> encoders = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Charset, BlockingQueue<CharsetDecoder>> decoders = new ConcurrentHashMap<>();
+
+    /**
+     * @param maxPooled maximum number of idle coders kept per charset and
+     * direction.
+     */
+    CharsetCoders(int maxPooled) {
+        this.maxPooled = maxPooled;
+    }
+
+    /**
+     * Returns an encoder in its initial state.
+     */
+    CharsetEncoder acquireEncoder(Charset charset) {
+        BlockingQueue<CharsetEncoder> idle = encoders.get(charset);
+        CharsetEncoder encoder = idle != null ? idle.poll() : null;
+        if(encoder == null) {
+            return charset.newEncoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        }
+        return encoder.reset();
+    }
+
+    void release(CharsetEncoder encoder) {
+        encoders.computeIfAbsent(encoder.charset(), cs -> new ArrayBlockingQueue<>(maxPooled)).offer(encoder);
+    }
+
+    /**
+     * Returns a decoder in its initial state.
+     */
+    CharsetDecoder acquireDecoder(Charset charset) {
+        BlockingQueue<CharsetDecoder> idle = decoders.get(charset);
+        CharsetDecoder decoder = idle != null ? idle.poll() : null;
+        if(decoder == null) {
+            return charset.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        }
+        return decoder.reset();
+    }
+
+    void release(CharsetDecoder decoder) {
+        decoders.computeIfAbsent(decoder.charset(), cs -> new ArrayBlockingQueue<>(maxPooled)).offer(decoder);
+    }
+}
@@ -0,0 +1,184 @@
+package org.fxmisc.livedirs;
+
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+
+/**
+ * Cache of loaded file content, bounded by the total size of the content
+ * and evicting least recently used files first. Concurrent loads of the
+ * same content share a single read.
+ *
+ * <p>Not thread-safe; used on the client thread only.
+ */
+class ContentCache {
+
+    private static final class Key {
+        final Path file;
+
+        /** Charset of a text load, {@code null} for a binary load. */
+        final Charset charset;
+
+        Key(Path file, Charset charset) {
+            this.file = file;
+            this.charset = charset;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if(!(o instanceof Key)) {
+                return false;
+            }
+            Key that = (Key) o;
+            return file.equals(that.file) && Objects.equals(charset, that.charset);
+        }
+
+        @Override
+        public int hashCode() {
+            return file.hashCode() * 31 + Objects.hashCode(charset);
+        }
+    }
+
+    private static final class Entry {
+        final CompletableFuture<?> content;
+
+        /** Size of the content, 0 while it is being loaded. */
+        long weight = 0;
+
+        Entry(CompletableFuture<?> content) {
+            this.content = content;
+        }
+    }
+
+    /** Entries in access order, least recently used first. */
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    /** Keys of the entries of each file. */
+    private final Map<Path, List<Key>> byFile = new HashMap<>();
+
+    /** Number of entries below each directory that contains cached files. */
+    private final Map<Path, Integer> counts = new HashMap<>();
+
+    private long capacity = 0;
+    private long size = 0;
+
+    boolean isEnabled() {
+        return capacity > 0;
+    }
+
+    /**
+     * Sets the maximum total size of cached content, in bytes. 0 disables
+     * and clears the cache.
+     */
+    void setCapacity(long capacity) {
+        this.capacity = capacity;
+        if(capacity > 0) {
+            evict();
+        } else {
+            entries.clear();
+            byFile.clear();
+            counts.clear();
+            size = 0;
+        }
+    }
+
+    /**
+     * Returns the cached content for the given file and charset, or starts
+     * loading it with the given loader and caches the result. If the load
+     * fails, nothing is cached.
+     *
+     * @param weigher computes the size of the loaded content in bytes.
+     */
+    @SuppressWarnings("unchecked")
+    <T> CompletableFuture<T> get(Path file, Charset charset,
+            Supplier<CompletableFuture<T>> loader, ToLongFunction<T> weigher) {
+        Key key = new Key(file, charset);
+        Entry entry = entries.get(key);
+        if(entry != null) {
+            return (CompletableFuture<T>) entry.content;
+        }
+
+        CompletableFuture<T> content = loader.get();
+        Entry newEntry = new Entry(content);
+        entries.put(key, newEntry);
+        byFile.computeIfAbsent(file, f -> new ArrayList<>(1)).add(key);
+        for(Path p = file.getParent(); p != null; p = p.getParent()) {
+            counts.merge(p, 1, Integer::sum);
+        }
+        content.whenComplete((value, error) -> {
+            // the entry may have been invalidated while loading
+            if(entries.get(key) != newEntry) {
+                return;
+            }
+            if(error != null) {
+                remove(key);
+            } else {
+                newEntry.weight = weigher.applyAsLong(value);
+                size += newEntry.weight;
+                evict();
+            }
+        });
+        return content;
+    }
+
+    /**
+     * Drops cached content of the given path and of all paths below it.
+     */
+    void invalidate(Path path) {
+        List<Key> keys = byFile.get(path);
+        if(keys != null) {
+            new ArrayList<>(keys).forEach(this::remove);
+        }
+        if(counts.containsKey(path)) {
+            // a directory with cached files below it; this is rare enough
+            // not to warrant an index of descendants
+            List<Key> stale = new ArrayList<>();
+            for(Key key: entries.keySet()) {
+                if(key.file.startsWith(path)) {
+                    stale.add(key);
+                }
+            }
+            stale.forEach(this::remove);
+        }
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<Key, Entry>> it = entries.entrySet().iterator();
+        while(size > capacity && it.hasNext()) {
+            Map.Entry<Key, Entry> e = it.next();
+            // entries being loaded are kept, so that their loads are shared
+            if(e.getValue().content.isDone()) {
+                it.remove();
+                removed(e.getKey(), e.getValue());
+            }
+        }
+    }
+
+    private void remove(Key key) {
+        Entry entry = entries.remove(key);
+        if(entry != null) {
+            removed(key, entry);
+        }
+    }
+
+    private void removed(Key key, Entry entry) {
+        size -= entry.weight;
+        List<Key> keys = byFile.get(key.file);
+        keys.remove(key);
+        if(keys.isEmpty()) {
+            byFile.remove(key.file);
+        }
+        for(Path p = key.file.getParent(); p != null; p = p.getParent()) {
+            counts.compute(p, (k, n) -> n == 1 ? null : n - 1);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package org.fxmisc.livedirs;
+
+import static java.nio.file.StandardOpenOption.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+
+/**
+ * Streaming implementation of the 64-bit xxHash (XXH64, seed 0), a fast
+ * non-cryptographic hash used to fingerprint file content.
+ */
+class ContentHash {
+    private static final long P1 = 0x9E3779B185EBCA87L;
+    private static final long P2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long P3 = 0x165667B19E3779F9L;
+    private static final long P4 = 0x85EBCA77C2B2AE63L;
+    private static final long P5 = 0x27D4EB2F165667C5L;
+
+    /**
+     * Hashes the content of the given file, reading it through the given
+     * buffer in chunks.
+     */
+    static long of(Path file, ByteBuffer buffer) throws IOException {
+        ContentHash hash = new ContentHash();
+        buffer.clear();
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        try(FileChannel channel = FileChannel.open(file, READ)) {
+            while(channel.read(buffer) >= 0) {
+                buffer.flip();
+                hash.update(buffer);
+                buffer.compact();
+            }
+        }
+        buffer.flip();
+        return hash.finish(buffer);
+    }
+
+    private long v1 = P1 + P2;
+    private long v2 = P2;
+    private long v3 = 0;
+    private long v4 = -P1;
+    private long length = 0;
+
+    /**
+     * Consumes all complete 32-byte stripes of the buffer, leaving fewer
+     * than 32 bytes remaining.
+     */
+    private void update(ByteBuffer buf) {
+        while(buf.remaining() >= 32) {
+            v1 = round(v1, buf.getLong());
+            v2 = round(v2, buf.getLong());
+            v3 = round(v3, buf.getLong());
+            v4 = round(v4, buf.getLong());
+            length += 32;
+        }
+    }
+
+    /**
+     * Consumes the remaining (fewer than 32) bytes and returns the hash.
+     */
+    private long finish(ByteBuffer buf) {
+        long h;
+        if(length >= 32) {
+            h = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+            h = merge(h, v1);
+            h = merge(h, v2);
+            h = merge(h, v3);
+            h = merge(h, v4);
+        } else {
+            h = P5;
+        }
+        h += length + buf.remaining();
+
+        while(buf.remaining() >= 8) {
+            h ^= round(0, buf.getLong());
+            h = Long.rotateLeft(h, 27) * P1 + P4;
+        }
+        if(buf.remaining() >= 4) {
+            h ^= (buf.getInt() & 0xFFFFFFFFL) * P1;
+            h = Long.rotateLeft(h, 23) * P2 + P3;
+        }
+        while(buf.hasRemaining()) {
+            h ^= (buf.get() & 0xFFL) * P5;
+            h = Long.rotateLeft(h, 11) * P1;
+        }
+
+        h ^= h >>> 33;
+        h *= P2;
+        h ^= h >>> 29;
+        h *= P3;
+        h ^= h >>> 32;
+        return h;
+    }
+
+    private static long round(long acc, long input) {
+        acc += input * P2;
+        acc = Long.rotateLeft(acc, 31);
+        return acc * P1;
+    }
+
+    private static long merge(long h, long v) {
+        h ^= round(0, v);
+        return h * P1 + P4;
+    }
+}
@@ -0,0 +1,172 @@
+package org.fxmisc.livedirs;
+
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+class DirEntry extends PathEntry {
+
+    /**
+     * Order of the entries of a directory: directories first, each group
+     * sorted by name, case-insensitively.
+     */
+    static int compare(boolean isDir1, String name1, boolean isDir2, String name2) {
+        if(isDir1 != isDir2) {
+            return isDir1 ? -1 : 1;
+        }
+        int c = name1.compareToIgnoreCase(name2);
+        return c != 0 ? c : name1.compareTo(name2);
+    }
+
+    static final Comparator<PathNode> NODE_ORDER = (a, b) -> compare(
+            a.isDirectory(), a.getPath().getFileName().toString(),
+            b.isDirectory(), b.getPath().getFileName().toString());
+
+    /**
+     * Children in the order of {@link #compare}, so that they can be looked
+     * up by binary search.
+     */
+    private final ArrayList<PathEntry> children = new ArrayList<>();
+
+    /** Number of directories among the children; they come first. */
+    private int dirCount = 0;
+
+    /**
+     * Modification time of the directory as of the last scan, or
+     * {@code null} if it has not been scanned.
+     */
+    private FileTime lastModified = null;
+
+    /**
+     * File key of the directory as of the last scan, used to recognize the
+     * directory when it is moved. {@code null} if not known.
+     */
+    private Object fileKey = null;
+
+    /**
+     * Whether some entries of this directory were left out by the path
+     * filter, so that the directory has to be listed again when the filter
+     * changes.
+     */
+    private boolean hasExclusions = false;
+
+    DirEntry(Path name) {
+        super(name);
+    }
+
+    @Override
+    public final boolean isDirectory() {
+        return true;
+    }
+
+    /**
+     * Entries of this directory. The returned list must not be modified.
+     */
+    public List<PathEntry> getChildren() {
+        return children;
+    }
+
+    public FileTime getLastModified() {
+        return lastModified;
+    }
+
+    void setLastModified(FileTime lastModified) {
+        if(!lastModified.equals(this.lastModified)) {
+            this.lastModified = lastModified;
+            invalidateSnapshot();
+        }
+    }
+
+    public Object getFileKey() {
+        return fileKey;
+    }
+
+    void setFileKey(Object fileKey) {
+        this.fileKey = fileKey;
+    }
+
+    public boolean hasExclusions() {
+        return hasExclusions;
+    }
+
+    void setHasExclusions(boolean hasExclusions) {
+        this.hasExclusions = hasExclusions;
+    }
+
+    @Override
+    void invalidatePaths() {
+        super.invalidatePaths();
+        for(PathEntry child: children) {
+            child.invalidatePaths();
+        }
+    }
+
+    @Override
+    public PathEntry getRelChild(Path name) {
+        assert name.getNameCount() == 1;
+        String s = name.toString();
+        int i = search(s, true);
+        if(i < 0) {
+            i = search(s, false);
+        }
+        return i >= 0 ? children.get(i) : null;
+    }
+
+    /**
+     * Inserts an entry among the children of this directory. No child of
+     * the same name may exist.
+     *
+     * @return the index of the inserted child.
+     */
+    int insert(PathEntry child) {
+        int i = -search(child.getName().toString(), child.isDirectory()) - 1;
+        assert i >= 0 : child.getName() + " already exists in " + getPath();
+        children.add(i, child);
+        if(child.isDirectory()) {
+            ++dirCount;
+        }
+        child.setParent(this);
+        invalidateSnapshot();
+        return i;
+    }
+
+    /**
+     * Removes the given child from this directory.
+     *
+     * @return the index the child had.
+     */
+    int remove(PathEntry child) {
+        int i = search(child.getName().toString(), child.isDirectory());
+        assert i >= 0 && children.get(i) == child;
+        children.remove(i);
+        if(child.isDirectory()) {
+            --dirCount;
+        }
+        child.setParent(null);
+        invalidateSnapshot();
+        return i;
+    }
+
+    /**
+     * Returns the index of the child with the given name and type, or
+     * {@code -(insertion point) - 1} if there is none.
+     */
+    private int search(String name, boolean isDirectory) {
+        int lo = isDirectory ? 0 : dirCount;
+        int hi = (isDirectory ? dirCount : children.size()) - 1;
+        while(lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int c = compare(isDirectory, children.get(mid).getName().toString(), isDirectory, name);
+            if(c < 0) {
+                lo = mid + 1;
+            } else if(c > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(lo + 1);
+    }
+}
@@ -1,50 +1,175 @@
 package org.fxmisc.livedirs;
 
+import static java.nio.file.LinkOption.*;
+import static java.nio.file.StandardCopyOption.*;
 import static java.nio.file.StandardOpenOption.*;
 import static java.nio.file.StandardWatchEventKinds.*;
 
 import java.io.IOException;
+import java.lang.reflect.Method;
 import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
 import java.nio.file.WatchKey;
 import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.file.attribute.FileTime;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
-import java.util.stream.Stream;
+import java.util.function.Predicate;
 
+import org.fxmisc.livedirs.LiveDirsMetrics.Operation;
+import org.fxmisc.livedirs.LiveDirsMetrics.Span;
 import org.reactfx.EventSource;
 import org.reactfx.EventStream;
 
 class DirWatcher {
     private final LinkedBlockingQueue<Runnable> executorQueue = new LinkedBlockingQueue<>();
     private final EventSource<WatchKey> signalledKeys = new EventSource<>();
+    private final EventSource<List<WatchKey>> coalescedKeys = new EventSource<>();
     private final EventSource<Throwable> errors = new EventSource<>();
     private final WatchService watcher;
     private final Thread ioThread;
     private final Executor eventThreadExecutor;
+    private final LiveDirsMetrics metrics;
+
+    /**
+     * Watch key of every watched directory. Only accessed from the event
+     * thread.
+     */
+    private final PathTrie<WatchKey> keys = new PathTrie<>();
+
+    /**
+     * Roots of trees that were just put into the model as a whole by an
+     * operation, see {@link #markFresh(Path)}. Only accessed from the event
+     * thread.
+     */
+    private final Set<Path> freshTrees = new HashSet<>();
+
+    /**
+     * Number of signalled keys handed over to the event thread and not yet
+     * processed there.
+     */
+    private final AtomicInteger pendingKeys = new AtomicInteger();
+
+    /**
+     * Upper bound on {@link #pendingKeys}; beyond it, events are dropped in
+     * favour of rescanning their directories. Set from any thread.
+     */
+    private volatile int maxPendingKeys = Integer.MAX_VALUE;
+
+    /**
+     * Upper bound on the length of the I/O queue, beyond which optional
+     * work is not queued. Set from any thread.
+     */
+    private volatile int maxQueuedActions = Integer.MAX_VALUE;
+
+    /**
+     * Keys whose events were dropped, waiting to be handed over to the event
+     * thread in one batch. Non-empty exactly while the hand-over is pending.
+     * Guarded by itself.
+     */
+    private final Set<WatchKey> droppedKeys = new LinkedHashSet<>();
+
+    /**
+     * Upper bound on the rate of reading file content for fingerprinting,
+     * in bytes per second. Set from any thread.
+     */
+    private volatile long hashBandwidth = 0;
+
+    // token bucket for hashBandwidth, negative while paying down a file
+    // larger than the bucket; only accessed on the I/O thread
+    private double hashTokens = 0;
+    private long hashTokensRefilled = System.nanoTime();
+
+    /**
+     * Buffers and charset coders for reading and writing file content,
+     * shared by the I/O thread and the threads of concurrent operations.
+     */
+    private final BufferPool buffers = new BufferPool(64 * 1024, 16);
+    private final CharsetCoders coders = new CharsetCoders(4);
+
+    /**
+     * Executor of requested I/O operations, or {@code null} if they are
+     * performed on the I/O thread. Set from the event thread.
+     */
+    private volatile ExecutorService operationExecutor = null;
+
+    /**
+     * Last operation submitted to {@link #operationExecutor} for each path
+     * with operations in progress, so that operations on the same path are
+     * performed in order.
+     */
+    private final ConcurrentMap<Path, CompletableFuture<Void>> operationTails = new ConcurrentHashMap<>();
+
+    /**
+     * Number of operations in progress on {@link #operationExecutor} that
+     * affect each directory. Signalled keys of these directories, or of
+     * their subdirectories, are held back in {@link #deferredKeys} until
+     * the operations have delivered their results, so that the changes are
+     * attributed to the initiators of the operations, just as when the
+     * operations run on the I/O thread. Both are guarded by
+     * {@code deferredKeys}.
+     */
+    private final Map<Path, Integer> busyDirs = new HashMap<>();
+    private final List<WatchKey> deferredKeys = new ArrayList<>();
+
+    /**
+     * Threads that copy files in parallel for {@link #copyTree}, or
+     * {@code null} until the first copy. Guarded by {@code this}.
+     */
+    private ExecutorService copyExecutor = null;
 
     private volatile boolean shutdown = false;
+    private Timer timer = null;
     private boolean mayInterrupt = false;
     private boolean interrupted = false;
 
-    public DirWatcher(Executor eventThreadExecutor) throws IOException {
+    public DirWatcher(Executor eventThreadExecutor, LiveDirsMetrics metrics) throws IOException {
         this.watcher = FileSystems.getDefault().newWatchService();
         this.ioThread = new Thread(this::loop, "DirWatchIO");
         this.eventThreadExecutor = eventThreadExecutor;
+        this.metrics = metrics;
+        metrics.attach(this);
         this.ioThread.start();
     }
 
@@ -52,17 +177,186 @@ class DirWatcher {
         return signalledKeys;
     }
 
+    /**
+     * Batches of signalled keys whose events were dropped because the event
+     * thread was behind. The keys have been reset, so their directories have
+     * to be rescanned to catch up.
+     */
+    public EventStream<List<WatchKey>> coalescedKeys() {
+        return coalescedKeys;
+    }
+
     public EventStream<Throwable> errors() {
         return errors;
     }
 
+    /**
+     * Sets the bounds beyond which work is no longer queued: the number of
+     * signalled keys waiting for the event thread, and the number of actions
+     * waiting for the I/O thread. Only optional work is subject to the
+     * latter; requested I/O operations are always queued.
+     */
+    public void setLimits(int maxPendingKeys, int maxQueuedActions) {
+        this.maxPendingKeys = maxPendingKeys;
+        this.maxQueuedActions = maxQueuedActions;
+    }
+
+    /**
+     * Whether the I/O queue is at its bound, in which case optional work
+     * should be skipped or deferred.
+     */
+    public boolean isQueueFull() {
+        return executorQueue.size() >= maxQueuedActions;
+    }
+
     public void shutdown() {
         shutdown = true;
+        synchronized(this) {
+            if(timer != null) {
+                timer.cancel();
+            }
+            if(copyExecutor != null) {
+                copyExecutor.shutdown();
+            }
+        }
+        ExecutorService executor = operationExecutor;
+        if(executor != null) {
+            executor.shutdown(); // operations in progress still complete
+        }
         interrupt();
     }
 
+    /**
+     * Switches requested I/O operations between the I/O thread and virtual
+     * threads, one per operation. Operations on the same path are still
+     * performed in the order they were requested, but operations requested
+     * before the switch are not ordered with those requested after it.
+     *
+     * @return whether virtual threads are in use, which is {@code false} if
+     * the JVM does not support them.
+     */
+    public boolean setVirtualThreadOperations(boolean enabled) {
+        ExecutorService previous = operationExecutor;
+        if(enabled == (previous != null)) {
+            return enabled;
+        }
+        operationExecutor = enabled ? newVirtualThreadPerTaskExecutor() : null;
+        if(previous != null) {
+            previous.shutdown();
+        }
+        return operationExecutor != null;
+    }
+
+    /**
+     * Returns {@code Executors.newVirtualThreadPerTaskExecutor()}, which
+     * exists as of Java 21, or {@code null} on older JVMs.
+     */
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch(ReflectiveOperationException e) {
+            // not available, or a preview feature that is not enabled
+            return null;
+        }
+    }
+
+    /**
+     * Executes the given action on the event thread after the given delay.
+     */
+    public void schedule(Runnable action, long delayMillis) {
+        TimerTask task = new TimerTask() {
+            @Override
+            public void run() {
+                executeOnEventThread(action);
+            }
+        };
+        synchronized(this) {
+            if(shutdown) {
+                return;
+            }
+            if(timer == null) {
+                timer = new Timer("DirWatchTimer", true);
+            }
+            timer.schedule(task, delayMillis);
+        }
+    }
+
+    /**
+     * Starts watching the given directory, unless it is already watched.
+     */
     public void watch(Path dir) throws IOException {
-        dir.register(watcher, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+        WatchKey key = keys.get(dir);
+        if(key == null || !key.isValid()) {
+            key = dir.register(watcher, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+            if(!dir.equals(key.watchable())) {
+                // the directory was moved while watched, and the watch
+                // service handed out the key of its old path
+                unwatch(key);
+                key = dir.register(watcher, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+            }
+            keys.put(dir, key);
+        }
+    }
+
+    /**
+     * Removes a key that is no longer valid from the registry of watched
+     * directories.
+     */
+    public void forget(WatchKey key) {
+        Path dir = (Path) key.watchable();
+        if(keys.get(dir) == key) {
+            keys.remove(dir);
+        }
+    }
+
+    /**
+     * Stops watching the directory of the given key and removes the key
+     * from the registry of watched directories.
+     */
+    public void unwatch(WatchKey key) {
+        key.cancel();
+        forget(key);
+    }
+
+    /**
+     * Stops watching the given directory and all watched directories
+     * within it, except those for which {@code stillNeeded} holds.
+     *
+     * @return the number of cancelled watches.
+     */
+    public int unwatchTree(Path root, Predicate<Path> stillNeeded) {
+        List<WatchKey> cancelled = new ArrayList<>();
+        keys.forEachUnder(root, key -> {
+            if(!stillNeeded.test((Path) key.watchable())) {
+                cancelled.add(key);
+            }
+        });
+        for(WatchKey key: cancelled) {
+            unwatch(key);
+        }
+        return cancelled.size();
+    }
+
+    /**
+     * Returns the number of currently watched directories.
+     */
+    public int getWatchCount() {
+        return keys.size();
+    }
+
+    /**
+     * Returns the number of actions waiting for the I/O thread.
+     */
+    public int getQueueDepth() {
+        return executorQueue.size();
+    }
+
+    /**
+     * Returns the number of signalled keys waiting for the event thread.
+     */
+    public int getPendingKeyCount() {
+        return pendingKeys.get();
     }
 
     public void watchOrLogError(Path dir) {
@@ -73,11 +367,54 @@ class DirWatcher {
         }
     }
 
-    public CompletionStage<PathNode> getTree(Path root) {
+    /**
+     * Starts watching every directory of the given tree.
+     */
+    public void watchTree(PathNode tree) {
+        if(tree.isDirectory()) {
+            watchOrLogError(tree.getPath());
+            for(PathNode child: tree.getChildren()) {
+                watchTree(child);
+            }
+        }
+    }
+
+    /**
+     * Records that the tree at the given path has been scanned, put into
+     * the model and watched, so the watch event of its creation need not
+     * trigger a rescan. The mark expires after a second.
+     */
+    public void markFresh(Path root) {
+        if(freshTrees.add(root)) {
+            schedule(() -> freshTrees.remove(root), 1000);
+        }
+    }
+
+    /**
+     * Returns whether the tree at the given path was marked fresh, and
+     * removes the mark.
+     */
+    public boolean consumeFresh(Path root) {
+        return !freshTrees.isEmpty() && freshTrees.remove(root);
+    }
+
+    public CompletionStage<PathNode> getTree(Path root, PathFilter filter, AttributeReader reader) {
+        CompletableFuture<PathNode> res = new CompletableFuture<>();
+        executeOnIOThread(Operation.SCAN, root, () -> {
+            try {
+                res.complete(PathNode.getTree(root, filter, reader));
+            } catch (IOException e) {
+                res.completeExceptionally(e);
+            }
+        });
+        return res;
+    }
+
+    public CompletionStage<PathNode> getNewEntries(Path dir, Set<Path> knownNames, PathFilter filter, AttributeReader reader) {
         CompletableFuture<PathNode> res = new CompletableFuture<>();
-        executeOnIOThread(() -> {
+        executeOnIOThread(Operation.SCAN, dir, () -> {
             try {
-                res.complete(PathNode.getTree(root));
+                res.complete(PathNode.getNewEntries(dir, knownNames, filter, reader));
             } catch (IOException e) {
                 res.completeExceptionally(e);
             }
@@ -85,12 +422,151 @@ class DirWatcher {
         return res;
     }
 
+    /**
+     * Sets the maximum rate at which file content is read for
+     * {@link #hashFile(Path)}. The budget accumulates for at most one second.
+     */
+    public void setHashBandwidth(long bytesPerSecond) {
+        this.hashBandwidth = bytesPerSecond;
+    }
+
+    /**
+     * Computes the content fingerprint of the given file, unless that
+     * would exceed the hashing bandwidth or the I/O queue is full, in which
+     * case the result is {@code null}.
+     */
+    public CompletionStage<Long> hashFile(Path file) {
+        if(isQueueFull()) {
+            metrics.recordShedOperation();
+            return CompletableFuture.completedFuture(null);
+        }
+        CompletableFuture<Long> res = new CompletableFuture<>();
+        executeOnIOThread(Operation.HASH, file, () -> {
+            try {
+                long size = Files.size(file);
+                if(hashBudgetDelay(size) == 0) {
+                    hashTokens -= size;
+                    res.complete(hash(file));
+                } else {
+                    res.complete(null);
+                }
+            } catch (IOException e) {
+                res.completeExceptionally(e);
+            }
+        });
+        return res;
+    }
+
+    /**
+     * Computes the content fingerprint of the given file as background
+     * work: instead of giving up when the hashing bandwidth is exhausted or
+     * the I/O queue is full, it waits. Passes the modification time as of
+     * which the fingerprint is valid, and the fingerprint, or {@code null}
+     * if the file was modified while reading it. If hashing gets disabled
+     * in the meantime, passes {@code null} for both instead.
+     */
+    public void hashFileInBackground(Path file,
+            BiConsumer<FileTime, Long> onSuccess, Consumer<Throwable> onError) {
+        if(isQueueFull()) {
+            schedule(() -> hashFileInBackground(file, onSuccess, onError), 100);
+            return;
+        }
+        executeOnIOThread(Operation.HASH, file, () -> {
+            try {
+                BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+                long delay = hashBudgetDelay(attrs.size());
+                if(delay == Long.MAX_VALUE) {
+                    // hashing was disabled
+                    executeOnEventThread(() -> onSuccess.accept(null, null));
+                    return;
+                } else if(delay > 0) {
+                    schedule(() -> hashFileInBackground(file, onSuccess, onError), delay);
+                    return;
+                }
+                hashTokens -= attrs.size();
+                long hash = hash(file);
+                FileTime lastModified = Files.getLastModifiedTime(file);
+                Long res = lastModified.equals(attrs.lastModifiedTime()) ? hash : null;
+                executeOnEventThread(() -> onSuccess.accept(lastModified, res));
+            } catch (IOException e) {
+                executeOnEventThread(() -> onError.accept(e));
+            }
+        });
+    }
+
+    private long hash(Path file) throws IOException {
+        ByteBuffer buffer = buffers.acquire();
+        try {
+            return ContentHash.of(file, buffer);
+        } finally {
+            buffers.release(buffer);
+        }
+    }
+
+    /**
+     * Returns the number of milliseconds until the hashing budget allows
+     * reading the given number of bytes, or 0 if it does now. A file
+     * larger than one second's worth of bandwidth is admitted once the
+     * budget is full; the budget then goes into debt, which is paid down
+     * over the following seconds before anything else is hashed. Returns
+     * {@link Long#MAX_VALUE} if hashing is disabled.
+     */
+    private long hashBudgetDelay(long bytes) {
+        long bandwidth = hashBandwidth;
+        if(bandwidth <= 0) {
+            return Long.MAX_VALUE;
+        }
+        long now = System.nanoTime();
+        hashTokens = Math.min(bandwidth, hashTokens + (now - hashTokensRefilled) * 1e-9 * bandwidth);
+        hashTokensRefilled = now;
+        double needed = Math.min(bytes, bandwidth);
+        if(hashTokens >= needed) {
+            return 0;
+        } else {
+            return Math.max(1, (long) Math.ceil((needed - hashTokens) * 1000 / bandwidth));
+        }
+    }
+
+    public CompletionStage<PathNode> loadSnapshot(Path file, Path root) {
+        CompletableFuture<PathNode> res = new CompletableFuture<>();
+        executeOnIOThread(Operation.SNAPSHOT, file, () -> {
+            try {
+                res.complete(TreeSnapshot.read(file, root));
+            } catch (IOException e) {
+                res.completeExceptionally(e);
+            }
+        });
+        return res;
+    }
+
+    public CompletionStage<PathNode> validateSnapshot(PathNode snapshot, PathFilter filter, AttributeReader reader) {
+        CompletableFuture<PathNode> res = new CompletableFuture<>();
+        executeOnIOThread(Operation.SNAPSHOT, snapshot.getPath(), () -> {
+            try {
+                res.complete(TreeSnapshot.validate(snapshot, filter, reader));
+            } catch (IOException e) {
+                res.completeExceptionally(e);
+            }
+        });
+        return res;
+    }
+
+    public void saveSnapshot(PathNode tree, Path file) {
+        executeOnIOThread(Operation.SNAPSHOT, file, () -> {
+            try {
+                TreeSnapshot.write(tree, file);
+            } catch (IOException e) {
+                emitError(e);
+            }
+        });
+    }
+
     public void createFile(Path file, Consumer<FileTime> onSuccess, Consumer<Throwable> onError) {
-        executeIOOperation(() -> createFile(file), onSuccess, onError);
+        executeIOOperation(Operation.CREATE, file, () -> createFile(file), onSuccess, onError);
     }
 
     public void createDirectory(Path dir, Runnable onSuccess, Consumer<Throwable> onError) {
-        executeIOOperation(
+        executeIOOperation(Operation.CREATE, dir,
                 () -> { Files.createDirectory(dir); return null; },
                 none -> onSuccess.run(),
                 onError);
@@ -98,7 +574,7 @@ class DirWatcher {
 
     public void saveTextFile(Path file, String content, Charset charset,
             Consumer<FileTime> onSuccess, Consumer<Throwable> onError) {
-        executeIOOperation(
+        executeIOOperation(Operation.SAVE, file,
                 () -> writeTextFile(file, content, charset),
                 onSuccess,
                 onError);
@@ -106,7 +582,7 @@ class DirWatcher {
 
     public void saveBinaryFile(Path file, byte[] content,
             Consumer<FileTime> onSuccess, Consumer<Throwable> onError) {
-        executeIOOperation(
+        executeIOOperation(Operation.SAVE, file,
                 () -> writeBinaryFile(file, content),
                 onSuccess,
                 onError);
@@ -114,7 +590,7 @@ class DirWatcher {
 
     public void deleteFileOrEmptyDirectory(Path fileOrDir,
             Runnable onSuccess, Consumer<Throwable> onError) {
-        executeIOOperation(
+        executeIOOperation(Operation.DELETE, fileOrDir,
                 () -> { Files.deleteIfExists(fileOrDir); return null; },
                 NULL -> onSuccess.run(),
                 onError);
@@ -122,7 +598,7 @@ class DirWatcher {
 
     public void deleteTree(Path root,
             Runnable onSuccess, Consumer<Throwable> onError) {
-        executeIOOperation(
+        executeIOOperation(Operation.DELETE, root,
                 () -> {
                     if(Files.exists(root)) {
                         deleteRecursively(root);
@@ -135,23 +611,111 @@ class DirWatcher {
 
     public void loadBinaryFile(Path file,
             Consumer<byte[]> onSuccess, Consumer<Throwable> onError) {
-        executeIOOperation(
+        executeIOOperation(Operation.LOAD, file,
                 () -> Files.readAllBytes(file),
                 onSuccess,
                 onError);
     }
 
+    /**
+     * Reads up to {@code length} bytes of the given file, starting at
+     * {@code offset}.
+     */
+    public void loadBinaryFile(Path file, long offset, int length,
+            Consumer<byte[]> onSuccess, Consumer<Throwable> onError) {
+        executeIOOperation(Operation.LOAD, file,
+                () -> readRange(file, offset, length),
+                onSuccess,
+                onError);
+    }
+
+    /**
+     * Reads the last {@code lineCount} lines of the given text file.
+     */
+    public void loadTail(Path file, int lineCount, Charset charset,
+            Consumer<List<String>> onSuccess, Consumer<Throwable> onError) {
+        executeIOOperation(Operation.LOAD, file,
+                () -> readTail(file, lineCount, charset),
+                onSuccess,
+                onError);
+    }
+
+    /**
+     * Reads what was appended to the given file since the given position,
+     * at most {@code maxBytes}.
+     */
+    public void readAppended(Path file, FileFollower.Position from, int maxBytes,
+            Consumer<FileFollower.Poll> onSuccess, Consumer<Throwable> onError) {
+        executeIOOperation(Operation.LOAD, file,
+                () -> readAppended(file, from, maxBytes),
+                onSuccess,
+                onError);
+    }
+
     public void loadTextFile(Path file, Charset charset,
             Consumer<String> onSuccess, Consumer<Throwable> onError) {
-        executeIOOperation(
+        executeIOOperation(Operation.LOAD, file,
                 () -> readTextFile(file, charset),
                 onSuccess,
                 onError);
     }
 
-    private <T> void executeIOOperation(Callable<T> action,
+    /**
+     * Copies the given file or directory tree to {@code target}, which must
+     * not exist. Directories are created first, then regular files are
+     * copied in parallel.
+     *
+     * @param onSuccess receives the copied tree, as seen through the given
+     * filter.
+     */
+    public void copyTree(Path source, Path target, PathFilter filter, AttributeReader reader,
+            Consumer<PathNode> onSuccess, Consumer<Throwable> onError) {
+        executeIOOperation(Operation.COPY, target, affectedDirs(target),
+                () -> {
+                    copyRecursively(source, target);
+                    return PathNode.getTree(target, filter, reader);
+                },
+                onSuccess,
+                onError);
+    }
+
+    /**
+     * Moves the given file or directory tree to {@code target}, which must
+     * not exist. Within a file store, this is a single rename; otherwise
+     * the tree is copied and then deleted.
+     *
+     * @param filter if not {@code null}, the moved tree is scanned through
+     * this filter and passed to {@code onSuccess}, which otherwise receives
+     * {@code null}.
+     */
+    public void moveTree(Path source, Path target, PathFilter filter, AttributeReader reader,
+            Consumer<PathNode> onSuccess, Consumer<Throwable> onError) {
+        List<Path> affected = new ArrayList<>(affectedDirs(source));
+        affected.addAll(affectedDirs(target));
+        executeIOOperation(Operation.MOVE, source, affected,
+                () -> {
+                    moveRecursively(source, target);
+                    return filter != null ? PathNode.getTree(target, filter, reader) : null;
+                },
+                onSuccess,
+                onError);
+    }
+
+    private <T> void executeIOOperation(Operation operation, Path path, Callable<T> action,
             Consumer<T> onSuccess, Consumer<Throwable> onError) {
-        executeOnIOThread(() -> {
+        executeIOOperation(operation, path, affectedDirs(path), action, onSuccess, onError);
+    }
+
+    /**
+     * Performs the given action, in order with other operations on the same
+     * path.
+     *
+     * @param affected directories changed by the action, whose watch events
+     * are held back until the result has been delivered.
+     */
+    private <T> void executeIOOperation(Operation operation, Path path, List<Path> affected,
+            Callable<T> action, Consumer<T> onSuccess, Consumer<Throwable> onError) {
+        Runnable task = traced(operation, path, () -> {
             try {
                 T res = action.call();
                 executeOnEventThread(() -> onSuccess.accept(res));
@@ -159,6 +723,119 @@ class DirWatcher {
                 executeOnEventThread(() -> onError.accept(t));
             }
         });
+        ExecutorService executor = operationExecutor;
+        if(executor != null) {
+            markBusy(affected);
+            executeInOrder(path, () -> {
+                try {
+                    task.run();
+                } finally {
+                    unmarkBusy(affected);
+                }
+            }, executor, rejected -> {
+                unmarkBusy(affected);
+                executeOnEventThread(() -> onError.accept(rejected));
+            });
+        } else {
+            executorQueue.add(task);
+            interrupt();
+        }
+    }
+
+    private void markBusy(List<Path> affected) {
+        synchronized(deferredKeys) {
+            for(Path dir: affected) {
+                busyDirs.merge(dir, 1, Integer::sum);
+            }
+        }
+    }
+
+    private void unmarkBusy(List<Path> affected) {
+        synchronized(deferredKeys) {
+            for(Path dir: affected) {
+                busyDirs.compute(dir, (d, n) -> n == 1 ? null : n - 1);
+            }
+            if(!deferredKeys.isEmpty()) {
+                executorQueue.add(this::emitDeferredKeys);
+                interrupt();
+            }
+        }
+    }
+
+    /**
+     * An operation on the given path changes the entry itself, if it is a
+     * directory, and its parent directory.
+     */
+    private static List<Path> affectedDirs(Path path) {
+        Path parent = path.getParent();
+        return parent != null ? Arrays.asList(path, parent) : Collections.singletonList(path);
+    }
+
+    /**
+     * Whether the given directory, or one of its ancestors, is affected by
+     * an operation in progress. Called with the lock held.
+     */
+    private boolean isBusy(Path dir) {
+        if(busyDirs.isEmpty()) {
+            return false;
+        }
+        for(Path d = dir; d != null; d = d.getParent()) {
+            if(busyDirs.containsKey(d)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void emitDeferredKeys() {
+        List<WatchKey> ready = new ArrayList<>();
+        synchronized(deferredKeys) {
+            for(Iterator<WatchKey> it = deferredKeys.iterator(); it.hasNext(); ) {
+                WatchKey key = it.next();
+                if(!isBusy((Path) key.watchable())) {
+                    ready.add(key);
+                    it.remove();
+                }
+            }
+        }
+        for(WatchKey key: ready) {
+            emitKey(key);
+        }
+    }
+
+    /**
+     * Executes the given task on the given executor once all tasks
+     * previously submitted for the same path have completed. If the
+     * executor rejects the task, e.g. after a shutdown or a switch of the
+     * executor, {@code onRejected} is called instead, and tasks queued
+     * behind it for the same path still proceed.
+     */
+    private void executeInOrder(Path path, Runnable task, ExecutorService executor,
+            Consumer<RuntimeException> onRejected) {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        CompletableFuture<Void> previous = operationTails.put(path, done);
+        Runnable run = () -> {
+            try {
+                task.run();
+            } finally {
+                operationTails.remove(path, done);
+                done.complete(null);
+            }
+        };
+        Runnable submit = () -> {
+            try {
+                executor.execute(run);
+            } catch(RuntimeException e) {
+                operationTails.remove(path, done);
+                done.complete(null);
+                onRejected.accept(e);
+            }
+        };
+        if(previous == null) {
+            submit.run();
+        } else {
+            previous.thenRun(submit);
+        }
     }
 
     private FileTime createFile(Path file) throws IOException {
@@ -166,8 +843,12 @@ class DirWatcher {
         return Files.getLastModifiedTime(file);
     }
 
+    /**
+     * Deletes a file or directory tree. Symbolic links are deleted, not
+     * followed.
+     */
     private void deleteRecursively(Path root) throws IOException {
-        if(Files.isDirectory(root)) {
+        if(Files.isDirectory(root, NOFOLLOW_LINKS)) {
             try(DirectoryStream<Path> stream = Files.newDirectoryStream(root)) {
                 for(Path path: stream) {
                     deleteRecursively(path);
@@ -177,29 +858,419 @@ class DirWatcher {
         Files.delete(root);
     }
 
+    private void moveRecursively(Path source, Path target) throws IOException {
+        // a rename would silently replace an existing file or empty directory
+        if(Files.exists(target, NOFOLLOW_LINKS)) {
+            throw new FileAlreadyExistsException(target.toString());
+        }
+        if(isSameFileStore(source, target)) {
+            try {
+                Files.move(source, target, ATOMIC_MOVE);
+                return;
+            } catch(AtomicMoveNotSupportedException e) {
+                // fall back to copying
+            }
+        }
+        copyRecursively(source, target);
+        deleteRecursively(source);
+    }
+
+    private static boolean isSameFileStore(Path source, Path target) throws IOException {
+        Path targetDir = target.toAbsolutePath().getParent();
+        return targetDir != null
+                && Files.getFileStore(source).equals(Files.getFileStore(targetDir));
+    }
+
+    /**
+     * Copies a file or directory tree. Symbolic links are copied as links.
+     * The directory structure is created on the calling thread, then
+     * regular files are copied with their attributes on
+     * {@link #copyExecutor()}, by {@link Files#copy(Path, Path,
+     * java.nio.file.CopyOption...)}, which uses the native copy of the
+     * platform where there is one.
+     */
+    private void copyRecursively(Path source, Path target) throws IOException {
+        if(target.startsWith(source)) {
+            throw new IOException("Cannot copy " + source + " into itself: " + target);
+        }
+        List<Path[]> files = new ArrayList<>();
+        Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                Files.createDirectory(targetOf(dir));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                if(attrs.isRegularFile()) {
+                    files.add(new Path[] { file, targetOf(file) });
+                } else {
+                    Files.copy(file, targetOf(file), NOFOLLOW_LINKS);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            private Path targetOf(Path path) {
+                // resolve by name, the file systems may differ
+                return target.resolve(source.relativize(path).toString());
+            }
+        });
+
+        if(files.size() == 1) {
+            copyFile(files.get(0)[0], files.get(0)[1]);
+            return;
+        }
+        ExecutorService executor = copyExecutor();
+        List<Future<?>> copies = new ArrayList<>(files.size());
+        for(Path[] file: files) {
+            copies.add(executor.submit(() -> { copyFile(file[0], file[1]); return null; }));
+        }
+        IOException error = null;
+        for(Future<?> copy: copies) {
+            try {
+                getUninterruptibly(copy);
+            } catch(ExecutionException e) {
+                if(error == null) {
+                    error = e.getCause() instanceof IOException
+                            ? (IOException) e.getCause()
+                            : new IOException(e.getCause());
+                    for(Future<?> f: copies) {
+                        f.cancel(false);
+                    }
+                }
+            } catch(CancellationException e) {
+                // cancelled after an earlier failure
+            }
+        }
+        if(error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     * Copies a regular file along with its attributes, such as the
+     * modification time and permissions.
+     */
+    private static void copyFile(Path source, Path target) throws IOException {
+        Files.copy(source, target, COPY_ATTRIBUTES);
+    }
+
+    private static <T> T getUninterruptibly(Future<T> future) throws ExecutionException {
+        boolean interrupted = false;
+        try {
+            for(;;) {
+                try {
+                    return future.get();
+                } catch(InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if(interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Returns the pool of threads that copy files in parallel, created on
+     * first use.
+     */
+    private synchronized ExecutorService copyExecutor() {
+        if(copyExecutor == null) {
+            int threads = Math.min(8, Math.max(2, Runtime.getRuntime().availableProcessors()));
+            AtomicInteger count = new AtomicInteger();
+            copyExecutor = Executors.newFixedThreadPool(threads, r -> {
+                Thread t = new Thread(r, "DirWatchCopy-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        return copyExecutor;
+    }
+
     private FileTime writeBinaryFile(Path file, byte[] content) throws IOException {
-        Files.write(file, content, CREATE, WRITE, TRUNCATE_EXISTING);
+        ByteBuffer buffer = buffers.acquire();
+        try(FileChannel channel = FileChannel.open(file, CREATE, WRITE, TRUNCATE_EXISTING)) {
+            int n = 0;
+            while(n < content.length) {
+                int length = Math.min(buffer.capacity(), content.length - n);
+                buffer.clear();
+                buffer.put(content, n, length);
+                buffer.flip();
+                writeFully(channel, buffer);
+                n += length;
+            }
+        } finally {
+            buffers.release(buffer);
+        }
         return Files.getLastModifiedTime(file);
     }
 
+    /**
+     * Encodes the content straight into a pooled buffer, one buffer-full
+     * at a time, instead of into an array of the whole encoded content.
+     */
     private FileTime writeTextFile(Path file, String content, Charset charset) throws IOException {
-        byte[] bytes = content.getBytes(charset);
-        return writeBinaryFile(file, bytes);
+        CharsetEncoder encoder = coders.acquireEncoder(charset);
+        ByteBuffer buffer = buffers.acquire();
+        try(FileChannel channel = FileChannel.open(file, CREATE, WRITE, TRUNCATE_EXISTING)) {
+            CharBuffer chars = CharBuffer.wrap(content);
+            CoderResult result;
+            do {
+                result = encoder.encode(chars, buffer, true);
+                drain(channel, buffer);
+            } while(result.isOverflow());
+            do {
+                result = encoder.flush(buffer);
+                drain(channel, buffer);
+            } while(result.isOverflow());
+        } finally {
+            buffers.release(buffer);
+            coders.release(encoder);
+        }
+        return Files.getLastModifiedTime(file);
     }
 
+    /**
+     * Decodes the file through a pooled buffer into a buffer of characters
+     * sized after the file, instead of reading it into an array first.
+     */
     private String readTextFile(Path file, Charset charset) throws IOException {
-        byte[] bytes = Files.readAllBytes(file);
-        CharBuffer chars = charset.decode(ByteBuffer.wrap(bytes));
-        return chars.toString();
+        CharsetDecoder decoder = coders.acquireDecoder(charset);
+        ByteBuffer buffer = buffers.acquire();
+        try(FileChannel channel = FileChannel.open(file, READ)) {
+            long size = channel.size();
+            CharBuffer chars = CharBuffer.allocate(
+                    (int) Math.min(Integer.MAX_VALUE - 8, size * (double) decoder.averageCharsPerByte() + 16));
+            boolean eof = false;
+            while(!eof) {
+                eof = channel.read(buffer) < 0;
+                buffer.flip();
+                while(decoder.decode(buffer, chars, eof).isOverflow()) {
+                    chars = grow(chars);
+                }
+                buffer.compact();
+            }
+            while(decoder.flush(chars).isOverflow()) {
+                chars = grow(chars);
+            }
+            chars.flip();
+            return chars.toString();
+        } finally {
+            buffers.release(buffer);
+            coders.release(decoder);
+        }
+    }
+
+    private static CharBuffer grow(CharBuffer chars) {
+        CharBuffer grown = CharBuffer.allocate(chars.capacity() * 2 + 16);
+        chars.flip();
+        grown.put(chars);
+        return grown;
+    }
+
+    /**
+     * Writes out what was put into the buffer, leaving it cleared.
+     */
+    private static void drain(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        writeFully(channel, buffer);
+        buffer.clear();
     }
 
-    private void executeOnIOThread(Runnable action) {
-        executorQueue.add(action);
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while(buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private byte[] readRange(Path file, long offset, int length) throws IOException {
+        if(offset < 0 || length < 0) {
+            throw new IllegalArgumentException("Negative offset or length: " + offset + ", " + length);
+        }
+        try(FileChannel channel = FileChannel.open(file, READ)) {
+            return readRange(channel, offset, (int) Math.min(length, Math.max(0, channel.size() - offset)));
+        }
+    }
+
+    /**
+     * Reads {@code length} bytes at {@code offset} through a pooled buffer,
+     * fewer if the file got shorter in the meantime.
+     */
+    private byte[] readRange(FileChannel channel, long offset, int length) throws IOException {
+        byte[] res = new byte[length];
+        ByteBuffer buffer = buffers.acquire();
+        try {
+            int n = 0;
+            while(n < length) {
+                buffer.clear();
+                buffer.limit(Math.min(buffer.capacity(), length - n));
+                int read = channel.read(buffer, offset + n);
+                if(read < 0) {
+                    return Arrays.copyOf(res, n);
+                }
+                buffer.flip();
+                buffer.get(res, n, read);
+                n += read;
+            }
+            return res;
+        } finally {
+            buffers.release(buffer);
+        }
+    }
+
+    /**
+     * A different file key, or the file having been missing in between,
+     * means the file was replaced. A size below the last offset means it
+     * was truncated. Without file keys, a replacement is only detected as
+     * such a truncation.
+     */
+    private FileFollower.Poll readAppended(Path file, FileFollower.Position from, int maxBytes) throws IOException {
+        try(FileChannel channel = FileChannel.open(file, READ)) {
+            Object fileKey = Files.readAttributes(file, BasicFileAttributes.class).fileKey();
+            long size = channel.size();
+            if(from.offset < 0) {
+                // start following at the current end
+                return new FileFollower.Poll(new FileFollower.Position(fileKey, size, false), null, false);
+            }
+
+            TailUpdate.Type type;
+            long start;
+            if(from.missing || from.fileKey != null && fileKey != null && !fileKey.equals(from.fileKey)) {
+                type = TailUpdate.Type.REPLACED;
+                start = 0;
+            } else if(size < from.offset) {
+                type = TailUpdate.Type.TRUNCATED;
+                start = 0;
+            } else {
+                type = TailUpdate.Type.APPENDED;
+                start = from.offset;
+            }
+            byte[] content = readRange(channel, start, (int) Math.min(maxBytes, size - start));
+            long end = start + content.length;
+            TailUpdate update = type != TailUpdate.Type.APPENDED || content.length > 0
+                    ? new TailUpdate(file, type, start, content)
+                    : null;
+            return new FileFollower.Poll(new FileFollower.Position(fileKey, end, false), update, end < size);
+        } catch(NoSuchFileException e) {
+            // a file that does not exist yet is followed from its beginning
+            FileFollower.Position missing = from.offset < 0
+                    ? new FileFollower.Position(null, 0, false)
+                    : new FileFollower.Position(from.fileKey, from.offset, true);
+            return new FileFollower.Poll(missing, null, false);
+        }
+    }
+
+    /**
+     * Scans the file backwards for line feeds, then decodes only the part
+     * that holds the requested lines. A line feed at the very end of the
+     * file terminates the last line rather than starting an empty one.
+     */
+    private List<String> readTail(Path file, int lineCount, Charset charset) throws IOException {
+        if(lineCount < 0) {
+            throw new IllegalArgumentException("Negative line count: " + lineCount);
+        }
+        byte[] bytes;
+        try(FileChannel channel = FileChannel.open(file, READ)) {
+            long size = channel.size();
+            long start = lineCount == 0 ? size : findTailStart(channel, size, lineCount);
+            bytes = readRange(channel, start, (int) Math.min(Integer.MAX_VALUE, size - start));
+        }
+        if(bytes.length == 0) {
+            return new ArrayList<>();
+        }
+        String text = new String(bytes, charset);
+        // holds no more than the lines actually read, and in case the file
+        // changed between the scan and the read, no more than requested
+        ArrayDeque<String> lines = new ArrayDeque<>();
+        int from = 0;
+        while(from < text.length()) {
+            int to = text.indexOf('\n', from);
+            if(to < 0) {
+                to = text.length();
+            }
+            int end = to > from && text.charAt(to - 1) == '\r' ? to - 1 : to;
+            lines.addLast(text.substring(from, end));
+            if(lines.size() > lineCount) {
+                lines.removeFirst();
+            }
+            from = to + 1;
+        }
+        return new ArrayList<>(lines);
+    }
+
+    private long findTailStart(FileChannel channel, long size, int lineCount) throws IOException {
+        ByteBuffer buffer = buffers.acquire();
+        try {
+            int lineFeeds = 0;
+            long pos = size;
+            while(pos > 0) {
+                int n = (int) Math.min(buffer.capacity(), pos);
+                pos -= n;
+                buffer.clear();
+                buffer.limit(n);
+                int read = 0;
+                while(read < n) {
+                    int r = channel.read(buffer, pos + read);
+                    if(r < 0) {
+                        break; // truncated meanwhile
+                    }
+                    read += r;
+                }
+                for(int i = read - 1; i >= 0; --i) {
+                    if(buffer.get(i) == '\n' && pos + i != size - 1 && ++lineFeeds == lineCount) {
+                        return pos + i + 1;
+                    }
+                }
+            }
+            return 0;
+        } finally {
+            buffers.release(buffer);
+        }
+    }
+
+    /**
+     * Executes the given action on the I/O thread, recording its latency
+     * from now until it completes.
+     */
+    private void executeOnIOThread(Operation operation, Path path, Runnable action) {
+        executorQueue.add(traced(operation, path, action));
         interrupt();
     }
 
+    /**
+     * Wraps the given action to record its latency from now until it
+     * completes. Returns the action itself if neither latencies nor JFR
+     * events are recorded.
+     */
+    private Runnable traced(Operation operation, Path path, Runnable action) {
+        if(!metrics.isTracingIO()) {
+            return action;
+        }
+        long submitted = System.nanoTime();
+        return () -> {
+            Span span = metrics.beginIO(operation, path);
+            try {
+                action.run();
+            } finally {
+                span.finish();
+                metrics.recordIO(operation, System.nanoTime() - submitted);
+            }
+        };
+    }
+
     private void executeOnEventThread(Runnable action) {
-        eventThreadExecutor.execute(action);
+        if(!metrics.isLatencyRecordingEnabled()) {
+            eventThreadExecutor.execute(action);
+            return;
+        }
+        long submitted = System.nanoTime();
+        eventThreadExecutor.execute(() -> {
+            metrics.recordEventThreadLatency(System.nanoTime() - submitted);
+            action.run();
+        });
     }
 
     private synchronized void interrupt() {
@@ -243,6 +1314,8 @@ class DirWatcher {
             if(key != null) {
                 emitKey(key);
             } else if(shutdown) {
+                // complete pending work, such as saving snapshots
+                processIOQueues();
                 try {
                     watcher.close();
                 } catch (IOException e) {
@@ -256,7 +1329,42 @@ class DirWatcher {
     }
 
     private void emitKey(WatchKey key) {
-        executeOnEventThread(() -> signalledKeys.push(key));
+        synchronized(deferredKeys) {
+            if(isBusy((Path) key.watchable())) {
+                deferredKeys.add(key);
+                return;
+            }
+        }
+        if(pendingKeys.get() < maxPendingKeys) {
+            pendingKeys.incrementAndGet();
+            executeOnEventThread(() -> {
+                pendingKeys.decrementAndGet();
+                signalledKeys.push(key);
+            });
+        } else {
+            // The event thread is behind. Rather than queueing ever more
+            // events, drop them and have the directory rescanned later.
+            key.pollEvents();
+            key.reset();
+            metrics.recordCoalescedKey();
+            boolean handOver;
+            synchronized(droppedKeys) {
+                handOver = droppedKeys.isEmpty();
+                droppedKeys.add(key);
+            }
+            if(handOver) {
+                executeOnEventThread(this::emitDroppedKeys);
+            }
+        }
+    }
+
+    private void emitDroppedKeys() {
+        List<WatchKey> batch;
+        synchronized(droppedKeys) {
+            batch = new ArrayList<>(droppedKeys);
+            droppedKeys.clear();
+        }
+        coalescedKeys.push(batch);
     }
 
     private void emitError(Throwable e) {
@@ -274,72 +1382,3 @@ class DirWatcher {
         }
     }
 }
-
-class PathNode {
-    public static PathNode getTree(Path root) throws IOException {
-        if(Files.isDirectory(root)) {
-            Path[] childPaths;
-            try(Stream<Path> dirStream = Files.list(root)) {
-                childPaths = dirStream
-                        .sorted(PATH_COMPARATOR)
-                        .toArray(Path[]::new);
-            }
-            List<PathNode> children = new ArrayList<>(childPaths.length);
-            for(Path p: childPaths) {
-                children.add(getTree(p));
-            }
-            return directory(root, children);
-        } else {
-            return file(root, Files.getLastModifiedTime(root));
-        }
-    }
-
-    private static final Comparator<Path> PATH_COMPARATOR = (p, q) -> {
-        boolean pd = Files.isDirectory(p);
-        boolean qd = Files.isDirectory(q);
-
-        if(pd && !qd) {
-            return -1;
-        } else if(!pd && qd) {
-            return 1;
-        } else {
-            return p.getFileName().toString().compareToIgnoreCase(q.getFileName().toString());
-        }
-    };
-
-    static PathNode file(Path path, FileTime lastModified) {
-        return new PathNode(path, false, Collections.emptyList(), lastModified);
-    }
-
-    static PathNode directory(Path path, List<PathNode> children) {
-        return new PathNode(path, true, children, null);
-    }
-
-    private final Path path;
-    private final boolean isDirectory;
-    private final List<PathNode> children;
-    private final FileTime lastModified;
-
-    private PathNode(Path path, boolean isDirectory, List<PathNode> children, FileTime lastModified) {
-        this.path = path;
-        this.isDirectory = isDirectory;
-        this.children = children;
-        this.lastModified = lastModified;
-    }
-
-    public Path getPath() {
-        return path;
-    }
-
-    public boolean isDirectory() {
-        return isDirectory;
-    }
-
-    public List<PathNode> getChildren() {
-        return children;
-    }
-
-    public FileTime getLastModified() {
-        return lastModified;
-    }
-}
\ No newline at end of file
@@ -10,14 +10,15 @@ import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
 
 import org.fxmisc.livedirs.DirectoryModel.GraphicFactory;
-import org.reactfx.EventStream;
 
 /**
- * Observable model of multiple directory trees.
+ * Observable model of multiple directory trees, presented as a hierarchy of
+ * {@link TreeItem}s. The items mirror a {@link DirectoryTree}, which does
+ * the actual work; all other operations are those of the tree.
  * @param <I> type of initiator of changes to the model.
  * @param <T> type for {@link TreeItem#getValue()}
  */
-public interface DirectoryModel<I, T> {
+public interface DirectoryModel<I, T> extends DirectoryTree<I> {
 
     /**
      * Factory to create graphics for {@link TreeItem}s in a
@@ -33,62 +34,6 @@ public interface DirectoryModel<I, T> {
         }
     }
 
-    /**
-     * Types of updates to the director model.
-     */
-    enum UpdateType {
-        /** Indicates a new directory entry. */
-        CREATION,
-
-        /** Indicates removal of a directory entry. */
-        DELETION,
-
-        /** Indicates file modification. */
-        MODIFICATION,
-    }
-
-    /**
-     * Represents an update to the directory model.
-     * @param <I> type of initiator of changes to the model.
-     */
-    class Update<I> {
-        static <I> Update<I> creation(Path baseDir, Path relPath, I initiator) {
-            return new Update<>(baseDir, relPath, initiator, UpdateType.CREATION);
-        }
-        static <I> Update<I> deletion(Path baseDir, Path relPath, I initiator) {
-            return new Update<>(baseDir, relPath, initiator, UpdateType.DELETION);
-        }
-        static <I> Update<I> modification(Path baseDir, Path relPath, I initiator) {
-            return new Update<>(baseDir, relPath, initiator, UpdateType.MODIFICATION);
-        }
-
-        private final Path baseDir;
-        private final Path relativePath;
-        private final I initiator;
-        private final UpdateType type;
-        private Update(Path baseDir, Path relPath, I initiator, UpdateType type) {
-            this.baseDir = baseDir;
-            this.relativePath = relPath;
-            this.initiator = initiator;
-            this.type = type;
-        }
-        public I getInitiator() {
-            return initiator;
-        }
-        public Path getBaseDir() {
-            return baseDir;
-        }
-        public Path getRelativePath() {
-            return relativePath;
-        }
-        public Path getPath() {
-            return baseDir.resolve(relativePath);
-        }
-        public UpdateType getType() {
-            return type;
-        }
-    }
-
     /**
      * Graphic factory that always returns {@code null}.
      */
@@ -111,40 +56,37 @@ public interface DirectoryModel<I, T> {
      */
     TreeItem<T> getRoot();
 
-    /**
-     * Indicates whether this directory model contains the given path.
-     */
-    boolean contains(Path path);
-
-    /**
-     * Returns an observable stream of additions to the model.
-     */
-    EventStream<Update<I>> creations();
-
-    /**
-     * Returns an observable stream of removals from the model.
-     */
-    EventStream<Update<I>> deletions();
-
-    /**
-     * Returns an observable stream of file modifications in the model.
-     */
-    EventStream<Update<I>> modifications();
-
     /**
      * Sets graphic factory used to create graphics of {@link TreeItem}s
      * in this directory model.
+     *
+     * <p>Graphics are created lazily, only for items whose ancestors are all
+     * expanded. Changing the factory immediately replaces the graphics of
+     * the currently displayed items; the rest of the tree picks up the new
+     * factory as it gets expanded.
      */
     void setGraphicFactory(GraphicFactory factory);
 }
 
 
+/**
+ * The icon images are shared by all items; only the (lightweight)
+ * {@link ImageView}s are per item, since a node cannot appear in the scene
+ * graph more than once.
+ */
 class DefaultGraphicFactory implements GraphicFactory {
-    private static final Image FOLDER_IMAGE = new Image(DefaultGraphicFactory.class.getResource("folder-16.png").toString());
-    private static final Image FILE_IMAGE = new Image(DefaultGraphicFactory.class.getResource("file-16.png").toString());
+
+    /**
+     * Loaded on first use, so that a model that is never displayed does
+     * not need the JavaFX toolkit.
+     */
+    private static final class Images {
+        static final Image FOLDER = new Image(DefaultGraphicFactory.class.getResource("folder-16.png").toString());
+        static final Image FILE = new Image(DefaultGraphicFactory.class.getResource("file-16.png").toString());
+    }
 
     @Override
     public Node createGraphic(Path path, boolean isDirectory) {
-        return isDirectory ? new ImageView(FOLDER_IMAGE) : new ImageView(FILE_IMAGE);
+        return isDirectory ? new ImageView(Images.FOLDER) : new ImageView(Images.FILE);
     }
 }
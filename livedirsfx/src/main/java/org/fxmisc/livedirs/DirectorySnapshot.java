@@ -0,0 +1,197 @@
+package org.fxmisc.livedirs;
+
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+/**
+ * Immutable view of a {@link DirectoryTree} at one point in time.
+ *
+ * <p>Snapshots share all unchanged subtrees with the snapshots taken before
+ * them, so taking one costs time proportional to the part of the model that
+ * changed since the previous one. Once taken, a snapshot may be read from
+ * any thread without synchronization, while the model keeps changing.
+ */
+public final class DirectorySnapshot {
+
+    /**
+     * Immutable directory entry.
+     */
+    public static final class Node {
+        private static final Node[] NO_CHILDREN = new Node[0];
+        private static final Comparator<Node> BY_NAME = Comparator.comparing(n -> n.name.toString());
+
+        static Node file(Path name, FileTime lastModified, EntryAttributes attributes) {
+            return new Node(name, false, lastModified, attributes, NO_CHILDREN);
+        }
+
+        static Node directory(Path name, FileTime lastModified, EntryAttributes attributes, Node[] children) {
+            return new Node(name, true, lastModified, attributes, children);
+        }
+
+        private final Path name;
+        private final boolean isDirectory;
+        private final FileTime lastModified;
+        private final EntryAttributes attributes;
+        private final List<Node> children;
+
+        /** Children sorted by name, for lookups by binary search. */
+        private final Node[] byName;
+
+        private Node(Path name, boolean isDirectory, FileTime lastModified, EntryAttributes attributes, Node[] children) {
+            this.name = name;
+            this.isDirectory = isDirectory;
+            this.lastModified = lastModified;
+            this.attributes = attributes;
+            this.children = Collections.unmodifiableList(Arrays.asList(children));
+            if(children.length == 0) {
+                this.byName = NO_CHILDREN;
+            } else {
+                this.byName = children.clone();
+                Arrays.sort(this.byName, BY_NAME);
+            }
+        }
+
+        private Node(Path name, Node content) {
+            this.name = name;
+            this.isDirectory = content.isDirectory;
+            this.lastModified = content.lastModified;
+            this.attributes = content.attributes;
+            this.children = content.children;
+            this.byName = content.byName;
+        }
+
+        /**
+         * Returns this entry under another name, sharing its content.
+         */
+        Node withName(Path name) {
+            return new Node(name, this);
+        }
+
+        /**
+         * File name of this entry. For a top-level directory, this is the
+         * absolute path of the directory.
+         */
+        public Path getName() {
+            return name;
+        }
+
+        public boolean isDirectory() {
+            return isDirectory;
+        }
+
+        /**
+         * Last modification time as of the last scan, or {@code null} if
+         * not known.
+         */
+        public FileTime getLastModified() {
+            return lastModified;
+        }
+
+        /**
+         * Captured attributes, or {@code null} if none were captured.
+         */
+        public EntryAttributes getAttributes() {
+            return attributes;
+        }
+
+        /**
+         * Entries of this directory, in the order of the model. Empty for a
+         * file.
+         */
+        public List<Node> getChildren() {
+            return children;
+        }
+
+        /**
+         * Returns the entry of this directory with the given file name, or
+         * {@code null} if there is none.
+         */
+        public Node getChild(Path name) {
+            String s = name.toString();
+            int lo = 0;
+            int hi = byName.length - 1;
+            while(lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                int c = byName[mid].name.toString().compareTo(s);
+                if(c < 0) {
+                    lo = mid + 1;
+                } else if(c > 0) {
+                    hi = mid - 1;
+                } else {
+                    return byName[mid];
+                }
+            }
+            return null;
+        }
+    }
+
+    private final List<Node> topLevelDirs;
+
+    DirectorySnapshot(Node[] topLevelDirs) {
+        this.topLevelDirs = Collections.unmodifiableList(Arrays.asList(topLevelDirs));
+    }
+
+    /**
+     * Returns the top-level directories, whose names are their absolute
+     * paths.
+     */
+    public List<Node> getTopLevelDirectories() {
+        return topLevelDirs;
+    }
+
+    /**
+     * Returns the entry at the given absolute path, or {@code null} if the
+     * snapshot does not contain the path.
+     */
+    public Node get(Path path) {
+        Node root = null;
+        for(Node dir: topLevelDirs) {
+            if(path.startsWith(dir.getName())
+                    && (root == null || dir.getName().getNameCount() > root.getName().getNameCount())) {
+                root = dir;
+            }
+        }
+        if(root == null) {
+            return null;
+        }
+
+        Node node = root;
+        for(Path name: root.getName().relativize(path)) {
+            if(name.toString().isEmpty()) {
+                continue;
+            }
+            node = node.getChild(name);
+            if(node == null) {
+                return null;
+            }
+        }
+        return node;
+    }
+
+    public boolean contains(Path path) {
+        return get(path) != null;
+    }
+
+    /**
+     * Passes every entry of every top-level directory, along with its
+     * absolute path, to the given action. Parents are visited before their
+     * children.
+     */
+    public void walk(BiConsumer<Path, Node> action) {
+        for(Node dir: topLevelDirs) {
+            walk(dir.getName(), dir, action);
+        }
+    }
+
+    private static void walk(Path path, Node node, BiConsumer<Path, Node> action) {
+        action.accept(path, node);
+        for(Node child: node.getChildren()) {
+            walk(path.resolve(child.getName()), child, action);
+        }
+    }
+}
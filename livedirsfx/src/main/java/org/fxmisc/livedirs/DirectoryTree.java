@@ -0,0 +1,250 @@
+package org.fxmisc.livedirs;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.reactfx.EventStream;
+
+/**
+ * Observable model of multiple directory trees that does not depend on a UI
+ * toolkit. It is the engine behind {@link DirectoryModel}, and can be used
+ * on its own, e.g. from server-side code, via {@link LiveDirs#tree()}.
+ * @param <I> type of initiator of changes to the model.
+ */
+public interface DirectoryTree<I> {
+
+    /**
+     * Types of updates to the director model.
+     */
+    enum UpdateType {
+        /** Indicates a new directory entry. */
+        CREATION,
+
+        /** Indicates removal of a directory entry. */
+        DELETION,
+
+        /** Indicates file modification. */
+        MODIFICATION,
+
+        /** Indicates that a directory entry was renamed or moved. */
+        MOVE,
+    }
+
+    /**
+     * Represents an update to the directory model.
+     * @param <I> type of initiator of changes to the model.
+     */
+    class Update<I> {
+        static <I> Update<I> creation(Path baseDir, Path relPath, I initiator) {
+            return new Update<>(baseDir, relPath, null, initiator, UpdateType.CREATION);
+        }
+        static <I> Update<I> deletion(Path baseDir, Path relPath, I initiator) {
+            return new Update<>(baseDir, relPath, null, initiator, UpdateType.DELETION);
+        }
+        static <I> Update<I> modification(Path baseDir, Path relPath, I initiator) {
+            return new Update<>(baseDir, relPath, null, initiator, UpdateType.MODIFICATION);
+        }
+        static <I> Update<I> move(Path baseDir, Path relPath, Path oldRelPath, I initiator) {
+            return new Update<>(baseDir, relPath, oldRelPath, initiator, UpdateType.MOVE);
+        }
+
+        private final Path baseDir;
+        private final Path relativePath;
+        private final Path oldRelativePath;
+        private final I initiator;
+        private final UpdateType type;
+        private Path path = null;
+        private Update(Path baseDir, Path relPath, Path oldRelPath, I initiator, UpdateType type) {
+            this.baseDir = baseDir;
+            this.relativePath = relPath;
+            this.oldRelativePath = oldRelPath;
+            this.initiator = initiator;
+            this.type = type;
+        }
+        public I getInitiator() {
+            return initiator;
+        }
+        public Path getBaseDir() {
+            return baseDir;
+        }
+        public Path getRelativePath() {
+            return relativePath;
+        }
+        public Path getPath() {
+            // resolved once; concurrent callers at worst resolve it twice
+            Path p = path;
+            if(p == null) {
+                p = baseDir.resolve(relativePath);
+                path = p;
+            }
+            return p;
+        }
+        public UpdateType getType() {
+            return type;
+        }
+        /**
+         * For a {@link UpdateType#MOVE}, returns the path of the entry before
+         * the move, relative to {@link #getBaseDir()}. Returns {@code null}
+         * for other types of updates.
+         */
+        public Path getOldRelativePath() {
+            return oldRelativePath;
+        }
+        /**
+         * For a {@link UpdateType#MOVE}, returns the path of the entry before
+         * the move. Returns {@code null} for other types of updates.
+         */
+        public Path getOldPath() {
+            return oldRelativePath != null ? baseDir.resolve(oldRelativePath) : null;
+        }
+    }
+
+    /**
+     * Updates to the directory model made during one processing turn of the
+     * client thread, such as the application of one file-system event or of
+     * one refresh.
+     * @param <I> type of initiator of changes to the model.
+     */
+    class ChangeSet<I> {
+        private static final Comparator<Update<?>> BY_PATH = Comparator.comparing(Update::getPath);
+
+        static <I> ChangeSet<I> of(List<Update<I>> updates, List<Path> replacedSubtrees) {
+            List<Update<I>> creations = new ArrayList<>();
+            List<Update<I>> deletions = new ArrayList<>();
+            List<Update<I>> modifications = new ArrayList<>();
+            List<Update<I>> moves = new ArrayList<>();
+            for(Update<I> u: updates) {
+                switch(u.getType()) {
+                    case CREATION: creations.add(u); break;
+                    case DELETION: deletions.add(u); break;
+                    case MODIFICATION: modifications.add(u); break;
+                    case MOVE: moves.add(u); break;
+                }
+            }
+            List<Path> replaced = new ArrayList<>(replacedSubtrees);
+            Collections.sort(replaced);
+            return new ChangeSet<>(sorted(creations), sorted(deletions), sorted(modifications), sorted(moves),
+                    Collections.unmodifiableList(replaced));
+        }
+
+        private static <I> List<Update<I>> sorted(List<Update<I>> updates) {
+            updates.sort(BY_PATH);
+            return Collections.unmodifiableList(updates);
+        }
+
+        private final List<Update<I>> creations;
+        private final List<Update<I>> deletions;
+        private final List<Update<I>> modifications;
+        private final List<Update<I>> moves;
+        private final List<Path> replacedSubtrees;
+        private ChangeSet(List<Update<I>> creations, List<Update<I>> deletions,
+                List<Update<I>> modifications, List<Update<I>> moves, List<Path> replacedSubtrees) {
+            this.creations = creations;
+            this.deletions = deletions;
+            this.modifications = modifications;
+            this.moves = moves;
+            this.replacedSubtrees = replacedSubtrees;
+        }
+        /** Added entries, sorted by path. */
+        public List<Update<I>> getCreations() {
+            return creations;
+        }
+        /** Removed entries, sorted by path. */
+        public List<Update<I>> getDeletions() {
+            return deletions;
+        }
+        /** Modified files, sorted by path. */
+        public List<Update<I>> getModifications() {
+            return modifications;
+        }
+        /** Moved entries, sorted by their new path. */
+        public List<Update<I>> getMoves() {
+            return moves;
+        }
+        /**
+         * Roots of the subtrees that were synchronized with a fresh scan of
+         * the file-system, sorted. The creations, deletions and modifications
+         * within them are part of this change set as well, but consumers
+         * may prefer to re-read these subtrees as a whole.
+         */
+        public List<Path> getReplacedSubtrees() {
+            return replacedSubtrees;
+        }
+        /**
+         * Indicates whether a subtree was synchronized with a fresh scan of
+         * the file-system, e.g. by {@link LiveDirs#refresh(Path)}.
+         */
+        public boolean isSubtreeReplaced() {
+            return !replacedSubtrees.isEmpty();
+        }
+    }
+
+    /**
+     * Indicates whether this directory model contains the given path.
+     */
+    boolean contains(Path path);
+
+    /**
+     * Returns the attributes of the entry at the given path, as captured by
+     * the last scan or change of the entry, without accessing the
+     * file-system. Returns {@code null} if the path is not in the model or
+     * no attributes are captured.
+     *
+     * @see LiveDirs#setCapturedAttributes(java.util.Set)
+     */
+    EntryAttributes getAttributes(Path path);
+
+    /**
+     * Returns an immutable snapshot of the current content of this model.
+     * Must be called on the thread that updates the model, but the returned
+     * snapshot may be handed over to and read from any thread. Consecutive
+     * snapshots share unchanged subtrees, so taking a snapshot only costs
+     * time proportional to what changed since the previous one.
+     */
+    DirectorySnapshot snapshot();
+
+    /**
+     * Returns an observable stream of additions to the model.
+     */
+    EventStream<Update<I>> creations();
+
+    /**
+     * Returns an observable stream of removals from the model.
+     */
+    EventStream<Update<I>> deletions();
+
+    /**
+     * Returns an observable stream of file modifications in the model.
+     */
+    EventStream<Update<I>> modifications();
+
+    /**
+     * Returns an observable stream of all updates to entries within the
+     * given subtree, including the root of the subtree. A move is emitted if
+     * either the old or the new path lies within the subtree.
+     *
+     * <p>Each update is dispatched only to the streams whose subtree contains
+     * it, in time proportional to the depth of its path rather than to the
+     * number of streams, so it is cheap to have many narrow subscriptions.
+     */
+    EventStream<Update<I>> updates(Path subtree);
+
+    /**
+     * Returns an observable stream of batched updates: all updates made
+     * during one processing turn of the client thread are emitted as one
+     * {@link ChangeSet}, after the turn. Updates are still emitted on the
+     * individual streams as well, as they happen.
+     */
+    EventStream<ChangeSet<I>> changes();
+
+    /**
+     * Returns an observable stream of directories that were renamed or moved
+     * within the model. A moved directory keeps its entries, and in a
+     * {@link DirectoryModel} its {@link javafx.scene.control.TreeItem}s; no
+     * creations or deletions are reported for its content.
+     */
+    EventStream<Update<I>> moves();
+}
@@ -0,0 +1,82 @@
+package org.fxmisc.livedirs;
+
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * File attributes of a directory entry, captured when the entry was scanned
+ * or last changed. Which attributes are captured is configured by
+ * {@link LiveDirs#setCapturedAttributes(Set)}; the others have a neutral
+ * value.
+ */
+public final class EntryAttributes {
+
+    /**
+     * Attributes that can be captured in the directory model.
+     */
+    public enum Kind {
+        /** Size of a file in bytes. */
+        SIZE,
+
+        /** POSIX permissions, on file-systems that support them. */
+        PERMISSIONS,
+
+        /** Whether the entry is a symbolic link. */
+        SYMBOLIC_LINK,
+    }
+
+    private final long size;
+    private final Set<PosixFilePermission> permissions;
+    private final boolean symbolicLink;
+
+    EntryAttributes(long size, Set<PosixFilePermission> permissions, boolean symbolicLink) {
+        this.size = size;
+        this.permissions = permissions;
+        this.symbolicLink = symbolicLink;
+    }
+
+    /**
+     * Size in bytes, or -1 if not captured.
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * POSIX permissions, or {@code null} if not captured or not supported
+     * by the file-system.
+     */
+    public Set<PosixFilePermission> getPermissions() {
+        return permissions;
+    }
+
+    /**
+     * Whether the entry is a symbolic link. Always {@code false} if not
+     * captured. All other attributes describe the target of the link.
+     */
+    public boolean isSymbolicLink() {
+        return symbolicLink;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if(!(o instanceof EntryAttributes)) {
+            return false;
+        }
+        EntryAttributes that = (EntryAttributes) o;
+        return size == that.size
+                && symbolicLink == that.symbolicLink
+                && Objects.equals(permissions, that.permissions);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(size, permissions, symbolicLink);
+    }
+
+    @Override
+    public String toString() {
+        return "EntryAttributes[size=" + size + ", permissions=" + permissions + ", symbolicLink=" + symbolicLink + "]";
+    }
+}
@@ -0,0 +1,74 @@
+package org.fxmisc.livedirs;
+
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+class FileEntry extends PathEntry {
+    private FileTime lastModified;
+
+    /**
+     * Fingerprint of the content as of {@link #lastModified}, valid only if
+     * {@link #hasContentHash} is set.
+     */
+    private long contentHash;
+    private boolean hasContentHash = false;
+
+    FileEntry(Path name, FileTime lastModified) {
+        super(name);
+        this.lastModified = lastModified;
+    }
+
+    @Override
+    public final boolean isDirectory() {
+        return false;
+    }
+
+    public FileTime getLastModified() {
+        return lastModified;
+    }
+
+    public boolean updateModificationTime(FileTime lastModified) {
+        if(lastModified.compareTo(this.lastModified) > 0) {
+            this.lastModified = lastModified;
+            hasContentHash = false;
+            invalidateSnapshot();
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    public boolean hasContentHash() {
+        return hasContentHash;
+    }
+
+    /**
+     * Records the fingerprint of the content as of the given modification
+     * time, unless the file has been modified since.
+     */
+    public void setContentHash(FileTime lastModified, long contentHash) {
+        if(lastModified.equals(this.lastModified)) {
+            this.contentHash = contentHash;
+            this.hasContentHash = true;
+        }
+    }
+
+    /**
+     * Updates the modification time along with the fingerprint of the
+     * content at that time.
+     *
+     * @return {@code true} if the modification time increased and the
+     * content differs from the last fingerprinted content, or no earlier
+     * fingerprint is known.
+     */
+    public boolean updateContent(FileTime lastModified, long contentHash) {
+        boolean same = hasContentHash && this.contentHash == contentHash;
+        if(updateModificationTime(lastModified)) {
+            this.contentHash = contentHash;
+            this.hasContentHash = true;
+            return !same;
+        } else {
+            return false;
+        }
+    }
+}
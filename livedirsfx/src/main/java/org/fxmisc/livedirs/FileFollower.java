@@ -0,0 +1,158 @@
+package org.fxmisc.livedirs;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import org.reactfx.EventStreamBase;
+import org.reactfx.Subscription;
+
+/**
+ * Stream of content appended to a file, returned by
+ * {@link LiveDirs#follow(Path)}. While observed, the follower is polled on
+ * every watch event of its file, and after rescans of its directory. Each
+ * poll reads the file from the last read offset on the I/O thread. Only
+ * accessed from the client thread.
+ */
+final class FileFollower extends EventStreamBase<TailUpdate> {
+
+    /**
+     * Upper bound on the content read by one poll. A file that grew by more
+     * is read in several polls, so following never holds more than this
+     * much of it in memory.
+     */
+    static final int MAX_READ = 1024 * 1024;
+
+    /**
+     * How far a file has been read, as of the last poll.
+     */
+    static final class Position {
+        static final Position END = new Position(null, -1, false);
+
+        /** File key of the file read so far, or {@code null} if not known. */
+        final Object fileKey;
+
+        /** Offset to continue from, or -1 to start at the current end. */
+        final long offset;
+
+        /** Whether the file was found missing since it was last read. */
+        final boolean missing;
+
+        Position(Object fileKey, long offset, boolean missing) {
+            this.fileKey = fileKey;
+            this.offset = offset;
+            this.missing = missing;
+        }
+    }
+
+    /**
+     * Outcome of a poll.
+     */
+    static final class Poll {
+        final Position position;
+
+        /** New content, or {@code null} if there is none. */
+        final TailUpdate update;
+
+        /** Whether more content remained beyond {@link #MAX_READ}. */
+        final boolean more;
+
+        Poll(Position position, TailUpdate update, boolean more) {
+            this.position = position;
+            this.update = update;
+            this.more = more;
+        }
+    }
+
+    private final Path file;
+    private final DirWatcher dirWatcher;
+    private final Map<Path, List<FileFollower>> followers;
+    private final Consumer<Throwable> errors;
+
+    private Position position = Position.END;
+    private boolean polling = false;
+    private boolean pollAgain = false;
+
+    /**
+     * Identifies the current period of being observed, so that a poll
+     * completing after the followers unsubscribed and new ones subscribed
+     * is discarded.
+     */
+    private Object session = null;
+
+    FileFollower(Path file, DirWatcher dirWatcher,
+            Map<Path, List<FileFollower>> followers, Consumer<Throwable> errors) {
+        this.file = file;
+        this.dirWatcher = dirWatcher;
+        this.followers = followers;
+        this.errors = errors;
+    }
+
+    Path getFile() {
+        return file;
+    }
+
+    @Override
+    protected Subscription observeInputs() {
+        Object current = new Object();
+        session = current;
+        position = Position.END;
+        followers.computeIfAbsent(file, f -> new ArrayList<>()).add(this);
+        poll();
+        return () -> {
+            List<FileFollower> registered = followers.get(file);
+            if(registered != null) {
+                registered.remove(this);
+                if(registered.isEmpty()) {
+                    followers.remove(file);
+                }
+            }
+            if(session == current) {
+                session = null;
+            }
+        };
+    }
+
+    /**
+     * Reads the content appended since the last poll. If a poll is in
+     * progress, another one follows it.
+     */
+    void poll() {
+        if(session == null) {
+            return;
+        }
+        if(polling) {
+            pollAgain = true;
+            return;
+        }
+        polling = true;
+        pollAgain = false;
+        Object current = session;
+        dirWatcher.readAppended(file, position, MAX_READ,
+                poll -> {
+                    polling = false;
+                    if(session != current) {
+                        poll();
+                        return;
+                    }
+                    position = poll.position;
+                    if(poll.update != null) {
+                        emit(poll.update);
+                    }
+                    if(poll.more || pollAgain) {
+                        poll();
+                    }
+                },
+                ex -> {
+                    polling = false;
+                    if(session == current) {
+                        errors.accept(ex);
+                    }
+                    if(pollAgain) {
+                        poll();
+                    }
+                });
+    }
+}
@@ -1,8 +1,14 @@
 package org.fxmisc.livedirs;
 
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
+import java.util.function.Consumer;
 
 /**
  * Simple API for asynchronous file-system operations.
@@ -47,6 +53,35 @@ public interface IOFacility {
      */
     CompletionStage<Void> deleteTree(Path root);
 
+    /**
+     * Copies a file or directory tree to {@code target}, which must not
+     * exist. Files are copied in parallel. If an I/O error occurs, the
+     * returned completion stage is completed exceptionally and the part of
+     * the tree copied so far is left in place.
+     *
+     * <p>The default implementation completes exceptionally with
+     * {@link UnsupportedOperationException}.
+     */
+    default CompletionStage<Void> copyTree(Path source, Path target) {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        result.completeExceptionally(new UnsupportedOperationException("copyTree"));
+        return result;
+    }
+
+    /**
+     * Moves a file or directory tree to {@code target}, which must not
+     * exist. Within a file store, this is a single rename; otherwise the
+     * tree is copied and then deleted.
+     *
+     * <p>The default implementation completes exceptionally with
+     * {@link UnsupportedOperationException}.
+     */
+    default CompletionStage<Void> moveTree(Path source, Path target) {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        result.completeExceptionally(new UnsupportedOperationException("moveTree"));
+        return result;
+    }
+
     /**
      * Reads the contents of a text file.
      */
@@ -57,19 +92,81 @@ public interface IOFacility {
      */
     CompletionStage<byte[]> loadBinaryFile(Path file);
 
+    /**
+     * Reads up to {@code length} bytes of a binary file, starting at
+     * {@code offset}. The result is shorter if the file ends earlier, and
+     * empty if it ends before {@code offset}. Only the requested range is
+     * read, so this is suitable for previews of large files.
+     *
+     * <p>The default implementation reads the whole file with
+     * {@link #loadBinaryFile(Path)} and returns the requested range.
+     */
+    default CompletionStage<byte[]> loadBinaryFile(Path file, long offset, int length) {
+        return loadBinaryFile(file).thenApply(content -> {
+            int from = (int) Math.min(offset, content.length);
+            return Arrays.copyOfRange(content, from, (int) Math.min((long) from + length, content.length));
+        });
+    }
+
+    /**
+     * Reads the last {@code lineCount} lines of a text file, or all of its
+     * lines if it has fewer, without reading the rest of the file. Lines
+     * are split at line feeds, optionally preceded by a carriage return,
+     * so the charset has to encode a line feed as the single byte
+     * {@code 0x0A}, as UTF-8 and the ISO-8859 charsets do.
+     *
+     * <p>The default implementation reads the whole file with
+     * {@link #loadTextFile(Path, Charset)}.
+     */
+    default CompletionStage<List<String>> loadTail(Path file, int lineCount, Charset charset) {
+        return loadTextFile(file, charset).thenApply(text -> {
+            if(lineCount < 0) {
+                throw new IllegalArgumentException("Negative line count: " + lineCount);
+            }
+            List<String> lines = new ArrayList<>(Arrays.asList(text.split("\r?\n", -1)));
+            String last = lines.remove(lines.size() - 1);
+            // a final line feed does not start another line
+            if(!last.isEmpty()) {
+                lines.add(last.endsWith("\r") ? last.substring(0, last.length() - 1) : last);
+            }
+            return new ArrayList<>(lines.subList(Math.max(0, lines.size() - lineCount), lines.size()));
+        });
+    }
+
+    /**
+     * Reads a binary file in consecutive chunks of {@code chunkSize} bytes,
+     * the last one possibly shorter, and passes them to the given consumer
+     * in order. The next chunk is only read once the previous one has been
+     * consumed, so at most one chunk is held in memory at a time. The
+     * returned completion stage completes after the last chunk has been
+     * consumed, or exceptionally on the first I/O error or exception thrown
+     * by the consumer.
+     *
+     * <p>The default implementation reads the whole file with
+     * {@link #loadBinaryFile(Path)} and then passes it on in chunks.
+     */
+    default CompletionStage<Void> loadChunks(Path file, int chunkSize, Consumer<byte[]> consumer) {
+        return loadBinaryFile(file).thenAccept(content -> {
+            if(chunkSize <= 0) {
+                throw new IllegalArgumentException("Chunk size must be positive: " + chunkSize);
+            }
+            for(long from = 0; from < content.length; from += chunkSize) {
+                consumer.accept(Arrays.copyOfRange(content, (int) from, (int) Math.min(from + chunkSize, content.length)));
+            }
+        });
+    }
+
     /**
      * Writes UTF8-encoded text to disk.
      */
     default CompletionStage<Void> saveUTF8File(Path file, String content) {
-        Charset utf8 = Charset.forName("UTF-8");
-        return saveTextFile(file, content, utf8);
+        return saveTextFile(file, content, StandardCharsets.UTF_8);
     }
 
     /**
      * Reads the contents of an UTF8-encoded file.
      */
     default CompletionStage<String> loadUTF8File(Path file) {
-        Charset utf8 = Charset.forName("UTF-8");
-        return loadTextFile(file, utf8);
+        return loadTextFile(file, StandardCharsets.UTF_8);
     }
 }
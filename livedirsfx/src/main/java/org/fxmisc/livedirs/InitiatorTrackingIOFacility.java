@@ -1,8 +1,14 @@
 package org.fxmisc.livedirs;
 
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
+import java.util.function.Consumer;
 
 /**
  * Simple API for asynchronous file-system operations.
@@ -32,19 +38,82 @@ public interface InitiatorTrackingIOFacility<I> {
 
     CompletionStage<Void> deleteTree(Path root, I initiator);
 
+    /**
+     * The default implementation completes exceptionally with
+     * {@link UnsupportedOperationException}.
+     */
+    default CompletionStage<Void> copyTree(Path source, Path target, I initiator) {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        result.completeExceptionally(new UnsupportedOperationException("copyTree"));
+        return result;
+    }
+
+    /**
+     * The default implementation completes exceptionally with
+     * {@link UnsupportedOperationException}.
+     */
+    default CompletionStage<Void> moveTree(Path source, Path target, I initiator) {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        result.completeExceptionally(new UnsupportedOperationException("moveTree"));
+        return result;
+    }
+
     CompletionStage<String> loadTextFile(Path file, Charset charset);
 
     CompletionStage<byte[]> loadBinaryFile(Path file);
 
+    /**
+     * The default implementation reads the whole file with
+     * {@link #loadBinaryFile(Path)} and returns the requested range.
+     */
+    default CompletionStage<byte[]> loadBinaryFile(Path file, long offset, int length) {
+        return loadBinaryFile(file).thenApply(content -> {
+            int from = (int) Math.min(offset, content.length);
+            return Arrays.copyOfRange(content, from, (int) Math.min((long) from + length, content.length));
+        });
+    }
+
+    /**
+     * The default implementation reads the whole file with
+     * {@link #loadTextFile(Path, Charset)}.
+     */
+    default CompletionStage<List<String>> loadTail(Path file, int lineCount, Charset charset) {
+        return loadTextFile(file, charset).thenApply(text -> {
+            if(lineCount < 0) {
+                throw new IllegalArgumentException("Negative line count: " + lineCount);
+            }
+            List<String> lines = new ArrayList<>(Arrays.asList(text.split("\r?\n", -1)));
+            String last = lines.remove(lines.size() - 1);
+            // a final line feed does not start another line
+            if(!last.isEmpty()) {
+                lines.add(last.endsWith("\r") ? last.substring(0, last.length() - 1) : last);
+            }
+            return new ArrayList<>(lines.subList(Math.max(0, lines.size() - lineCount), lines.size()));
+        });
+    }
+
+    /**
+     * The default implementation reads the whole file with
+     * {@link #loadBinaryFile(Path)} and then passes it on in chunks.
+     */
+    default CompletionStage<Void> loadChunks(Path file, int chunkSize, Consumer<byte[]> consumer) {
+        return loadBinaryFile(file).thenAccept(content -> {
+            if(chunkSize <= 0) {
+                throw new IllegalArgumentException("Chunk size must be positive: " + chunkSize);
+            }
+            for(long from = 0; from < content.length; from += chunkSize) {
+                consumer.accept(Arrays.copyOfRange(content, (int) from, (int) Math.min(from + chunkSize, content.length)));
+            }
+        });
+    }
+
     default CompletionStage<Void> saveUTF8File(
             Path file, String content, I initiator) {
-        Charset utf8 = Charset.forName("UTF-8");
-        return saveTextFile(file, content, utf8, initiator);
+        return saveTextFile(file, content, StandardCharsets.UTF_8, initiator);
     }
 
     default CompletionStage<String> loadUTF8File(Path file) {
-        Charset utf8 = Charset.forName("UTF-8");
-        return loadTextFile(file, utf8);
+        return loadTextFile(file, StandardCharsets.UTF_8);
     }
 
     /**
@@ -88,6 +157,16 @@ public interface InitiatorTrackingIOFacility<I> {
                 return self.deleteTree(root, initiator);
             }
 
+            @Override
+            public CompletionStage<Void> copyTree(Path source, Path target) {
+                return self.copyTree(source, target, initiator);
+            }
+
+            @Override
+            public CompletionStage<Void> moveTree(Path source, Path target) {
+                return self.moveTree(source, target, initiator);
+            }
+
             @Override
             public CompletionStage<String> loadTextFile(
                     Path file, Charset charset) {
@@ -98,6 +177,24 @@ public interface InitiatorTrackingIOFacility<I> {
             public CompletionStage<byte[]> loadBinaryFile(Path file) {
                 return self.loadBinaryFile(file);
             }
+
+            @Override
+            public CompletionStage<byte[]> loadBinaryFile(
+                    Path file, long offset, int length) {
+                return self.loadBinaryFile(file, offset, length);
+            }
+
+            @Override
+            public CompletionStage<List<String>> loadTail(
+                    Path file, int lineCount, Charset charset) {
+                return self.loadTail(file, lineCount, charset);
+            }
+
+            @Override
+            public CompletionStage<Void> loadChunks(
+                    Path file, int chunkSize, Consumer<byte[]> consumer) {
+                return self.loadChunks(file, chunkSize, consumer);
+            }
         };
     }
 }
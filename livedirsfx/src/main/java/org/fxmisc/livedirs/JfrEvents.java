@@ -0,0 +1,81 @@
+package org.fxmisc.livedirs;
+
+import java.nio.file.Path;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+import org.fxmisc.livedirs.LiveDirsMetrics.Operation;
+import org.fxmisc.livedirs.LiveDirsMetrics.Span;
+import org.fxmisc.livedirs.LiveDirsMetrics.Tracer;
+
+/**
+ * Java Flight Recorder events of {@link LiveDirsMetrics}. No other class
+ * refers to this one: it is instantiated reflectively once JFR events are
+ * enabled, after checking that the JVM provides JFR, so the rest of the
+ * library loads and runs on JVMs without it.
+ */
+final class JfrEvents implements Tracer {
+
+    @Override
+    public Span beginUpdate(String cause, Path path) {
+        UpdateEvent event = new UpdateEvent();
+        if(event.isEnabled()) {
+            event.cause = cause;
+            event.path = path.toString();
+            event.begin();
+        }
+        return event;
+    }
+
+    @Override
+    public Span beginIO(Operation operation, Path path) {
+        IOOperationEvent event = new IOOperationEvent();
+        if(event.isEnabled()) {
+            event.operation = operation.name();
+            event.path = path != null ? path.toString() : null;
+            event.begin();
+        }
+        return event;
+    }
+
+    @Name("org.fxmisc.livedirs.Update")
+    @Label("LiveDirs Update")
+    @Description("Update of a directory tree on the client thread")
+    @Category("LiveDirs")
+    @StackTrace(false)
+    static class UpdateEvent extends Event implements Span {
+        @Label("Cause")
+        String cause;
+
+        @Label("Path")
+        String path;
+
+        @Override
+        public void finish() {
+            commit();
+        }
+    }
+
+    @Name("org.fxmisc.livedirs.IOOperation")
+    @Label("LiveDirs I/O Operation")
+    @Description("Operation on the LiveDirs I/O thread")
+    @Category("LiveDirs")
+    @StackTrace(false)
+    static class IOOperationEvent extends Event implements Span {
+        @Label("Operation")
+        String operation;
+
+        @Label("Path")
+        String path;
+
+        @Override
+        public void finish() {
+            commit();
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package org.fxmisc.livedirs;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Distribution of durations, in nanoseconds, since the start of the
+ * measurement. Recording is lock-free and does not allocate, so it can be
+ * done on any thread, including the JavaFX application thread.
+ *
+ * <p>Durations are counted in buckets: one per power of two, each split
+ * into 8 linear sub-buckets. Percentiles are therefore reported as the
+ * upper bound of the containing bucket, at most 12.5% above the exact
+ * value. The count, total and maximum are exact.
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /** Enough buckets for any non-negative {@code long}. */
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder total = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    LatencyHistogram() {}
+
+    void record(long nanos) {
+        if(nanos < 0) {
+            nanos = 0; // clock went backwards
+        }
+        counts.incrementAndGet(bucketOf(nanos));
+        count.increment();
+        total.add(nanos);
+        long m;
+        while(nanos > (m = max.get()) && !max.compareAndSet(m, nanos)) {
+            // retry
+        }
+    }
+
+    /**
+     * Number of recorded durations.
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * Sum of the recorded durations, in nanoseconds.
+     */
+    public long getTotalNanos() {
+        return total.sum();
+    }
+
+    /**
+     * Longest recorded duration, in nanoseconds, or 0 if none was recorded.
+     */
+    public long getMaxNanos() {
+        return max.get();
+    }
+
+    /**
+     * Average of the recorded durations, in nanoseconds, or 0 if none was
+     * recorded.
+     */
+    public double getMeanNanos() {
+        long n = count.sum();
+        return n == 0 ? 0 : (double) total.sum() / n;
+    }
+
+    /**
+     * Returns the duration, in nanoseconds, that the given percentage of the
+     * recorded durations do not exceed, e.g. {@code getPercentileNanos(99)}.
+     * Returns 0 if no duration was recorded.
+     *
+     * @param percentile a number between 0 and 100.
+     */
+    public long getPercentileNanos(double percentile) {
+        if(percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("Percentile out of range: " + percentile);
+        }
+        long[] snapshot = new long[BUCKETS];
+        long n = 0;
+        for(int i = 0; i < BUCKETS; ++i) {
+            snapshot[i] = counts.get(i);
+            n += snapshot[i];
+        }
+        if(n == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * n));
+        long seen = 0;
+        for(int i = 0; i < BUCKETS; ++i) {
+            seen += snapshot[i];
+            if(seen >= rank) {
+                return Math.min(upperBoundOf(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("LatencyHistogram[count=%d, mean=%.0fns, p50=%dns, p99=%dns, max=%dns]",
+                getCount(), getMeanNanos(), getPercentileNanos(50), getPercentileNanos(99), getMaxNanos());
+    }
+
+    private static int bucketOf(long value) {
+        if(value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    private static long upperBoundOf(int bucket) {
+        if(bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long sub = bucket % SUB_BUCKETS;
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        return ((SUB_BUCKETS + sub) << (exponent - SUB_BUCKET_BITS)) + width - 1;
+    }
+}
@@ -4,13 +4,23 @@ import static java.nio.file.StandardWatchEventKinds.*;
 
 import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.WatchEvent;
 import java.nio.file.WatchEvent.Kind;
 import java.nio.file.WatchKey;
 import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
 import java.util.concurrent.Executor;
 import java.util.function.Function;
@@ -19,9 +29,11 @@ import javafx.application.Platform;
 import javafx.scene.control.TreeItem;
 import javafx.scene.control.TreeView;
 
+import org.fxmisc.livedirs.LiveDirsMetrics.Span;
 import org.reactfx.EventSource;
 import org.reactfx.EventStream;
 import org.reactfx.EventStreams;
+import org.reactfx.Subscription;
 
 /**
  * LiveDirs combines a directory watcher, a directory-tree model and a simple
@@ -34,6 +46,9 @@ import org.reactfx.EventStreams;
  * </ol>
  *
  * <p>The directory model can be used directly as a model for {@link TreeView}.
+ * Applications that do not display the directories, or that run without the
+ * JavaFX toolkit, can use the {@link #tree() directory tree} instead, which
+ * provides the same updates without creating any {@link TreeItem}s.
  *
  * @param <I> type of the initiator of I/O actions.
  * @param <T> type for {@link TreeItem#getValue()}
@@ -62,17 +77,90 @@ public class LiveDirs<I, T> {
      * @throws IOException
      */
     public static <I> LiveDirs<I, Path> getInstance(I externalInitiator, Executor clientThreadExecutor) throws IOException {
-        return new LiveDirs<>(externalInitiator, Function.identity(), Function.identity(), clientThreadExecutor);
+        return new LiveDirs<>(externalInitiator, Function.identity(), clientThreadExecutor);
     }
 
+    /**
+     * Suggested maximum number of directories with changes queued for the
+     * client thread, for use with {@link #setOverloadThresholds(int, int)}.
+     */
+    public static final int DEFAULT_MAX_PENDING_DIRECTORIES = 1024;
+
+    /**
+     * Suggested length of the I/O queue from which optional operations are
+     * no longer queued, for use with {@link #setOverloadThresholds(int, int)}.
+     */
+    public static final int DEFAULT_MAX_QUEUED_OPERATIONS = 1024;
+
     private final EventSource<Throwable> localErrors = new EventSource<>();
+    private final EventSource<Boolean> overloaded = new EventSource<>();
     private final EventStream<Throwable> errors;
     private final Executor clientThreadExecutor;
     private final DirWatcher dirWatcher;
-    private final LiveDirsModel<I, T> model;
+    private final LiveDirsMetrics metrics = new LiveDirsMetrics();
+    private final LiveDirsTree<I> tree;
+    private final Function<Path, T> injector;
+    private LiveDirsModel<I, T> model = null;
     private final LiveDirsIO<I> io;
     private final I externalInitiator;
 
+    private Path snapshotDir = null;
+
+    /**
+     * Deleted directories that may turn out to have been moved, by file key.
+     */
+    private final Map<Object, Path> pendingMoves = new HashMap<>();
+    private long moveDetectionWindow = 0;
+    private boolean contentHashing = false;
+
+    /**
+     * Files waiting for a baseline fingerprint, computed one at a time in
+     * the background while content fingerprinting is enabled.
+     */
+    private final Set<Path> unhashedFiles = new LinkedHashSet<>();
+    private Subscription baselineHashing = null;
+    private boolean hashingBaseline = false;
+
+    /**
+     * Incremented whenever content hashing is disabled, so that baseline
+     * hashes still in progress are discarded.
+     */
+    private int baselineGeneration = 0;
+    private AttributeReader attributeReader = AttributeReader.BASIC;
+
+    /**
+     * Directories whose events were dropped, or whose scan was deferred,
+     * because LiveDirs was overloaded. They are rescanned in batches, one
+     * batch at a time.
+     */
+    private final Set<Path> dirtyDirs = new HashSet<>();
+    private boolean rescanning = false;
+
+    /**
+     * Event rate above which a directory is considered to be in a storm,
+     * in events per second, or 0 if storm detection is disabled.
+     */
+    private int stormThreshold = 0;
+    private long stormSettleMillis = 250;
+
+    /**
+     * Number of events per directory in the current one-second window.
+     */
+    private final Map<Path, Integer> eventCounts = new HashMap<>();
+    private long eventCountsStart = System.nanoTime();
+
+    /**
+     * Directories in a storm, with the time of their latest event. Events
+     * within these directories, including their subdirectories, are dropped
+     * until the storm settles and the directory is rescanned.
+     */
+    private final Map<Path, long[]> storms = new HashMap<>();
+
+    /**
+     * Observed streams returned by {@link #follow(Path)}, by file.
+     */
+    private final Map<Path, List<FileFollower>> followers = new HashMap<>();
+
     /**
      * Creates a LiveDirs instance to be used from a designated thread.
      * @param projector converts the ({@link T}) {@link TreeItem#getValue()} into a {@link Path} object
@@ -82,16 +170,36 @@ public class LiveDirs<I, T> {
      * @param clientThreadExecutor executor to execute actions on the caller
      * thread. Used to publish updates and errors on the caller thread.
      * @throws IOException
+     * @deprecated The directory model keeps track of the paths of its items
+     * itself and never needs to project a value back to a path. Use
+     * {@link #LiveDirs(Object, Function, Executor)} instead.
      */
+    @Deprecated
     public LiveDirs(I externalInitiator, Function<T, Path> projector, Function<Path, T> injector, Executor clientThreadExecutor) throws IOException {
+        this(externalInitiator, injector, clientThreadExecutor);
+    }
+
+    /**
+     * Creates a LiveDirs instance to be used from a designated thread.
+     * @param injector converts a given {@link Path} object into {@link T}
+     * @param externalInitiator object to represent an initiator of an external
+     * file-system change.
+     * @param clientThreadExecutor executor to execute actions on the caller
+     * thread. Used to publish updates and errors on the caller thread.
+     * @throws IOException
+     */
+    public LiveDirs(I externalInitiator, Function<Path, T> injector, Executor clientThreadExecutor) throws IOException {
         this.externalInitiator = externalInitiator;
         this.clientThreadExecutor = clientThreadExecutor;
-        this.dirWatcher = new DirWatcher(clientThreadExecutor);
-        this.model = new LiveDirsModel<>(externalInitiator, projector, injector);
-        this.io = new LiveDirsIO<>(dirWatcher, model, clientThreadExecutor);
+        this.dirWatcher = new DirWatcher(clientThreadExecutor, metrics);
+        this.injector = injector;
+        this.tree = new LiveDirsTree<>(externalInitiator, clientThreadExecutor);
+        this.io = new LiveDirsIO<>(dirWatcher, tree, clientThreadExecutor);
 
         this.dirWatcher.signalledKeys().subscribe(this::processKey);
-        this.errors = EventStreams.merge(dirWatcher.errors(), model.errors(), localErrors);
+        this.dirWatcher.coalescedKeys().subscribe(this::processCoalescedKeys);
+        this.errors = EventStreams.merge(dirWatcher.errors(), tree.errors(), localErrors);
+        this.errors.subscribe(e -> metrics.recordError());
     }
 
     /**
@@ -100,20 +208,74 @@ public class LiveDirs<I, T> {
     public EventStream<Throwable> errors() { return errors; }
 
     /**
-     * Observable directory model.
+     * Emits {@code true} when LiveDirs falls behind the file-system and
+     * switches to rescanning changed directories instead of processing
+     * their individual events, and {@code false} once it has caught up.
+     * While overloaded, updates are still reported, but arrive later and
+     * in larger batches. Never emits unless overload thresholds have been
+     * set.
+     *
+     * @see #setOverloadThresholds(int, int)
+     */
+    public EventStream<Boolean> overloaded() { return overloaded; }
+
+    /**
+     * Observable directory model. The model is created on the first call,
+     * which has to be made on the client thread, and mirrors the
+     * {@link #tree() directory tree} from then on.
+     */
+    public DirectoryModel<I, T> model() {
+        if(model == null) {
+            model = new LiveDirsModel<>(tree, injector);
+        }
+        return model;
+    }
+
+    /**
+     * Observable directory tree, without any {@link TreeItem}s. Unlike
+     * {@link #model()}, it can be used without the JavaFX toolkit, e.g. in
+     * a server or a command-line tool, as long as this LiveDirs instance was
+     * created with a client thread executor of the application's own.
      */
-    public DirectoryModel<I, T> model() { return model; }
+    public DirectoryTree<I> tree() { return tree; }
 
     /**
-     * Asynchronous I/O facility. All I/O operations performed by this facility
-     * are performed on a single thread. It is the same thread that is used to
-     * watch the file-system for changes.
+     * Asynchronous I/O facility. By default, all I/O operations performed by
+     * this facility are performed on a single thread, the same thread that
+     * is used to watch the file-system for changes. With
+     * {@link #setVirtualThreadIO(boolean)}, they are performed on virtual
+     * threads instead, in order for each path.
      */
     public InitiatorTrackingIOFacility<I> io() { return io; }
 
+    /**
+     * Runtime metrics of this LiveDirs instance, such as the number of
+     * watched directories, the depth of the I/O queue and the latencies of
+     * I/O operations.
+     */
+    public LiveDirsMetrics metrics() { return metrics; }
+
+    /**
+     * Index of the file names in the directory model, for "go to file" style
+     * lookups by prefix, substring or fuzzy pattern. The index is built on
+     * the first call, which has to be made on the client thread, and is then
+     * kept up to date as the model changes. It can be queried from any
+     * thread.
+     */
+    public NameIndex nameIndex() { return tree.getNameIndex(); }
+
     /**
      * Adds a directory to watch. The directory will be added to the directory
      * model and watched for changes.
+     *
+     * <p>A directory that lies within another top-level directory is a view
+     * onto the content of the enclosing directory: it is neither scanned nor
+     * watched separately. Like any top-level directory, it reports its
+     * existing content as created, and each change within it is reported
+     * relative to it as well as relative to the enclosing directory.
+     * {@link DirectoryTree#updates(Path)} and {@link DirectoryTree#changes()}
+     * deliver each change in the file-system once, relative to the outermost
+     * top-level directory.
      */
     public void addTopLevelDirectory(Path dir) {
         if(!dir.isAbsolute()) {
@@ -121,14 +283,329 @@ public class LiveDirs<I, T> {
         }
 
         try {
-            dirWatcher.watch(dir);
-            model.addTopLevelDirectory(dir);
-            refresh(dir);
+            boolean shared = tree.containsPrefixOf(dir) && tree.addTopLevelDirectory(dir);
+            if(!shared) {
+                dirWatcher.watch(dir);
+                tree.addTopLevelDirectory(dir);
+                if(snapshotDir != null) {
+                    restore(dir);
+                } else {
+                    refresh(dir);
+                }
+            }
         } catch (IOException e) {
             localErrors.push(e);
         }
     }
 
+    /**
+     * Enables persistent snapshots of the directory model, stored in the
+     * given directory.
+     *
+     * <p>When enabled, {@link #dispose()} saves the content of every
+     * top-level directory (names, types and modification times of entries).
+     * A top-level directory added later, possibly by another LiveDirs
+     * instance, is then populated from its snapshot right away, and the
+     * snapshot is validated against the file-system in the background.
+     * Validation only lists directories whose modification time changed;
+     * the differences are reported as regular updates.
+     *
+     * <p>Has to be called before adding the top-level directories that
+     * should be restored from a snapshot.
+     *
+     * @param dir directory to store the snapshots in, or {@code null} to
+     * disable snapshots.
+     */
+    public void setSnapshotDirectory(Path dir) {
+        this.snapshotDir = dir;
+    }
+
+    /**
+     * Sets for how long the deletion of a directory is held back, waiting
+     * for the creation of a directory with the same file key, in which case
+     * the pair is treated as a move: the existing items are relocated and
+     * reported via {@link DirectoryTree#moves()}, instead of the subtree
+     * being deleted and rescanned. Only applies to external changes on
+     * file-systems that provide {@linkplain BasicFileAttributes#fileKey()
+     * file keys}.
+     *
+     * <p>File keys may be reused as soon as a directory is deleted, so the
+     * pair is only treated as a move if the created directory also has the
+     * modification time recorded for the deleted one, which a rename keeps.
+     * Otherwise the deletion and the creation are applied as such.
+     *
+     * <p>Move detection is disabled by default. When enabled, every external
+     * deletion of a directory is reported up to {@code millis} late.
+     *
+     * @param millis the window in milliseconds, or 0 to disable move
+     * detection.
+     */
+    public void setMoveDetectionWindow(long millis) {
+        this.moveDetectionWindow = millis;
+    }
+
+    /**
+     * Sets when a burst of changes within one directory, e.g. due to
+     * {@code git rebase}, {@code mvn clean} or unpacking an archive, is
+     * treated as a storm. When more than {@code eventsPerSecond} events
+     * arrive for a directory within one second, its events, and those of
+     * its subdirectories, are no longer processed one by one. Instead, the
+     * directory is rescanned once no events have arrived for it for
+     * {@code settleMillis}, and the differences are reported as regular
+     * updates. Storm detection is disabled by default; 1000 events per
+     * second and 250 milliseconds suit most source trees.
+     *
+     * @param eventsPerSecond the event rate, or 0 to disable storm
+     * detection.
+     * @param settleMillis how long a directory has to be quiet for its storm
+     * to end.
+     */
+    public void setStormThreshold(int eventsPerSecond, long settleMillis) {
+        if(eventsPerSecond < 0 || settleMillis < 0) {
+            throw new IllegalArgumentException("Thresholds must not be negative");
+        }
+        this.stormThreshold = eventsPerSecond;
+        this.stormSettleMillis = settleMillis;
+    }
+
+    /**
+     * Sets the filter that decides which entries are included in the
+     * directory model, e.g. {@code PathFilter.excludingGlobs("node_modules",
+     * ".git")}. Excluded entries are skipped before they are listed or
+     * watched, so excluding a large directory saves both the scan and the
+     * watches of its content. Top-level directories themselves are never
+     * excluded.
+     *
+     * <p>The filter may be changed at any time. Entries rejected by the new
+     * filter are removed from the model, reported as deleted, and their
+     * watches are released. To find entries the new filter accepts, only
+     * the directories from which entries were left out before are listed
+     * again; the rest of the tree is not rescanned.
+     *
+     * @param filter the filter, or {@code null} to include everything.
+     * @return completion stage that completes when newly included entries
+     * have been added to the model.
+     */
+    public CompletionStage<Void> setPathFilter(PathFilter filter) {
+        PathFilter newFilter = filter != null ? filter : PathFilter.ACCEPT_ALL;
+        for(Path dir: tree.setPathFilter(newFilter)) {
+            dirWatcher.unwatchTree(dir, tree::contains);
+        }
+
+        List<CompletableFuture<Void>> listings = new ArrayList<>();
+        for(Path dir: tree.getDirsWithExclusions()) {
+            listings.add(dirWatcher.getNewEntries(dir, tree.getChildNames(dir), newFilter, attributeReader)
+                    .thenAcceptAsync(node -> {
+                        if(tree.getPathFilter() != newFilter) {
+                            return; // superseded by another change of the filter
+                        }
+                        for(PathNode child: node.getChildren()) {
+                            tree.sync(child);
+                            watchTree(child);
+                        }
+                        tree.setHasExclusions(dir, node.hasExclusions());
+                    }, clientThreadExecutor)
+                    .toCompletableFuture());
+        }
+        return wrap(CompletableFuture.allOf(listings.toArray(new CompletableFuture<?>[listings.size()])));
+    }
+
+    /**
+     * Enables content fingerprinting. When a file's modification time
+     * increases due to an external change, its content is hashed on the I/O
+     * thread (with 64-bit xxHash) and compared with the fingerprint of the
+     * previous content. If the content is unchanged, e.g. because a tool
+     * rewrote the file with identical content, no
+     * {@link DirectoryTree.UpdateType#MODIFICATION} is reported.
+     *
+     * <p>Baseline fingerprints of the files in the model are computed in
+     * the background, one file at a time, so that even the first
+     * modification of a file is compared. Reading content for
+     * fingerprinting is bounded by the given bandwidth. A file larger than
+     * one second's worth of it is read once the budget is full, and the
+     * budget is then paid down over the following seconds. When the budget
+     * is exhausted, modifications are reported without comparing content,
+     * and the file is fingerprinted again in the background.
+     *
+     * @param maxBytesPerSecond the bandwidth for reading file content, or 0
+     * to disable content fingerprinting.
+     */
+    public void setContentHashing(long maxBytesPerSecond) {
+        this.contentHashing = maxBytesPerSecond > 0;
+        dirWatcher.setHashBandwidth(maxBytesPerSecond);
+        if(contentHashing && baselineHashing == null) {
+            for(PathNode tree: this.tree.getOutermostTrees()) {
+                addUnhashedFiles(tree);
+            }
+            baselineHashing = EventStreams.merge(tree.creations(), tree.modifications())
+                    .subscribe(u -> addUnhashedFile(u.getPath()));
+        } else if(!contentHashing && baselineHashing != null) {
+            baselineHashing.unsubscribe();
+            baselineHashing = null;
+            unhashedFiles.clear();
+            hashingBaseline = false;
+            ++baselineGeneration;
+        }
+    }
+
+    private void addUnhashedFiles(PathNode tree) {
+        if(tree.isDirectory()) {
+            for(PathNode child: tree.getChildren()) {
+                addUnhashedFiles(child);
+            }
+        } else {
+            addUnhashedFile(tree.getPath());
+        }
+    }
+
+    private void addUnhashedFile(Path file) {
+        unhashedFiles.add(file);
+        if(!hashingBaseline) {
+            hashNextBaseline();
+        }
+    }
+
+    /**
+     * Computes the baseline fingerprint of the next file that still lacks
+     * one, and so on until there are none left.
+     */
+    private void hashNextBaseline() {
+        Path file = null;
+        FileTime lastModified = null;
+        for(Iterator<Path> it = unhashedFiles.iterator(); it.hasNext() && lastModified == null; ) {
+            file = it.next();
+            it.remove();
+            lastModified = tree.getUnhashedModificationTime(file);
+        }
+        if(lastModified == null) {
+            hashingBaseline = false;
+            return;
+        }
+        hashingBaseline = true;
+        Path hashed = file;
+        int generation = baselineGeneration;
+        dirWatcher.hashFileInBackground(hashed,
+                (modified, hash) -> {
+                    if(generation != baselineGeneration) {
+                        return;
+                    }
+                    if(hash != null) {
+                        tree.setContentHash(hashed, modified, hash);
+                    }
+                    hashNextBaseline();
+                },
+                ex -> {
+                    // most likely deleted in the meantime
+                    if(generation == baselineGeneration) {
+                        hashNextBaseline();
+                    }
+                });
+    }
+
+    /**
+     * Enables caching of file content loaded by {@link #io()}. Content of
+     * files in the directory model is kept in memory, up to the given total
+     * size, evicting the least recently loaded files first. Cached content
+     * is dropped as soon as the model reports its file modified or deleted,
+     * so a load never returns content older than the model. Concurrent
+     * loads of the same file share a single read.
+     *
+     * <p>Text is cached per charset and counted at two bytes per character.
+     * Loads of binary files return a fresh copy of the cached content.
+     *
+     * @param maxBytes the maximum total size of cached content, or 0 to
+     * disable caching, which is the default.
+     */
+    public void setContentCache(long maxBytes) {
+        io.setCacheCapacity(maxBytes);
+    }
+
+    /**
+     * Sets when LiveDirs considers itself overloaded. By default, there
+     * are no thresholds: every event is queued for the client thread and
+     * every scan for the I/O thread, however far behind they fall.
+     * {@link #DEFAULT_MAX_PENDING_DIRECTORIES} and
+     * {@link #DEFAULT_MAX_QUEUED_OPERATIONS} are reasonable values for
+     * trees that may see large bursts of changes.
+     *
+     * <p>When the client thread falls behind by more than
+     * {@code maxPendingDirectories}, the events of further changed
+     * directories are dropped and the directories are marked for a rescan
+     * instead. Memory use is then bounded by the number of watched
+     * directories, however many changes happen, e.g. when a large tree is
+     * deleted. Likewise, when the I/O queue is full, new directories are
+     * marked for a rescan rather than scanned right away, and content
+     * fingerprinting is skipped. Marked directories are rescanned in
+     * batches, one batch at a time, until none are left; see
+     * {@link #overloaded()}. Operations requested via {@link #io()} are
+     * never dropped.
+     *
+     * @param maxPendingDirectories maximum number of directories with
+     * changes queued for the client thread.
+     * @param maxQueuedOperations I/O queue length from which optional
+     * operations are no longer queued.
+     */
+    public void setOverloadThresholds(int maxPendingDirectories, int maxQueuedOperations) {
+        if(maxPendingDirectories < 1 || maxQueuedOperations < 1) {
+            throw new IllegalArgumentException("Thresholds must be positive");
+        }
+        dirWatcher.setLimits(maxPendingDirectories, maxQueuedOperations);
+    }
+
+    /**
+     * Makes the operations of {@link #io()} run on virtual threads, one per
+     * operation, instead of queueing on the single I/O thread. Many
+     * concurrent reads and writes of small files then no longer wait for
+     * each other, nor for directory scans. Operations on the same path are
+     * still performed in the order they were requested, and their results
+     * are delivered on the client thread as before. Scanning, watching and
+     * content fingerprinting stay on the I/O thread.
+     *
+     * <p>Virtual threads require Java 21; on older JVMs this method has no
+     * effect. Best called before requesting any I/O: operations requested
+     * before a switch are not ordered with those requested after it.
+     *
+     * @return whether I/O operations now run on virtual threads.
+     */
+    public boolean setVirtualThreadIO(boolean enabled) {
+        return dirWatcher.setVirtualThreadOperations(enabled);
+    }
+
+    /**
+     * Sets which file attributes are captured in the directory model and
+     * made available via {@link DirectoryTree#getAttributes(Path)}. The
+     * attributes are read by the same system call that the scanner and the
+     * watcher make for every entry anyway, except that capturing
+     * {@link EntryAttributes.Kind#SYMBOLIC_LINK} costs one more call for
+     * each symbolic link. Changes of captured attributes of a file, such as
+     * its permissions, are reported as modifications. By default, no
+     * attributes are captured.
+     *
+     * <p>Has to be called before adding top-level directories.
+     */
+    public void setCapturedAttributes(Set<EntryAttributes.Kind> attributes) {
+        this.attributeReader = new AttributeReader(attributes);
+        io.setAttributeReader(attributeReader);
+    }
+
+    /**
+     * Removes a top-level directory from the directory model and stops
+     * watching it. Watches of directories that are still covered by another
+     * top-level directory are kept. Entries that are no longer covered by any
+     * top-level directory are reported as deleted.
+     *
+     * @return the number of released directory watches.
+     */
+    public int removeTopLevelDirectory(Path dir) {
+        if(tree.removeTopLevelDirectory(dir)) {
+            // deletions held back for move detection no longer apply
+            pendingMoves.values().removeIf(p -> p.startsWith(dir) && !tree.contains(p));
+            return dirWatcher.unwatchTree(dir, tree::containsPrefixOf);
+        } else {
+            return 0;
+        }
+    }
+
     /**
      * Used to refresh the given subtree of the directory model in case
      * automatic synchronization failed for any reason.
@@ -139,43 +616,234 @@ public class LiveDirs<I, T> {
      * way to request synchronization in case any inconsistencies are observed.
      */
     public CompletionStage<Void> refresh(Path path) {
-        return wrap(dirWatcher.getTree(path))
+        long start = System.nanoTime();
+        return wrap(dirWatcher.getTree(path, tree.getPathFilter(), attributeReader))
                 .thenAcceptAsync(tree -> {
-                    model.sync(tree);
+                    Span span = metrics.beginUpdate("refresh", path);
+                    this.tree.sync(tree);
                     watchTree(tree);
+                    pollFollowersUnder(path);
+                    span.finish();
+                    metrics.recordRefresh(System.nanoTime() - start);
                 }, clientThreadExecutor);
     }
 
+    /**
+     * Follows a growing file, such as a log. The returned stream emits
+     * only the content appended to the file, read from the offset up to
+     * which it was previously read, rather than the whole file. If the file
+     * is truncated or replaced, e.g. by log rotation, the stream continues
+     * from the beginning of the file and says so via
+     * {@link TailUpdate#getType()}. Replacement is detected by a change of
+     * the file key, where the file system provides one, or by the file
+     * having been missing in between.
+     *
+     * <p>Following starts at the end of the file as of when the stream is
+     * first observed, or at the beginning of the file if it does not exist
+     * yet, and stops when the stream is no longer observed. The file is
+     * read on each change of it reported by the watcher, so it has to be
+     * within a top-level directory. Growth by more than 1 MiB is delivered
+     * in several updates.
+     */
+    public EventStream<TailUpdate> follow(Path file) {
+        return new FileFollower(file, dirWatcher, followers, localErrors::push);
+    }
+
     /**
      * Releases resources used by this LiveDirs instance. In particular, stops
      * the I/O thread (used for I/O operations as well as directory watching).
      */
     public void dispose() {
+        if(snapshotDir != null) {
+            for(PathNode tree: this.tree.getOutermostTrees()) {
+                dirWatcher.saveSnapshot(tree, TreeSnapshot.fileFor(snapshotDir, tree.getPath()));
+            }
+        }
         dirWatcher.shutdown();
     }
 
     private void processKey(WatchKey key) {
         Path dir = (Path) key.watchable();
-        if(!model.containsPrefixOf(dir)) {
-            key.cancel();
+        if(!tree.containsPrefixOf(dir)) {
+            dirWatcher.unwatch(key);
         } else {
+            Span span = metrics.beginUpdate("watch events", dir);
             List<WatchEvent<?>> events = key.pollEvents();
-            if(events.stream().anyMatch(evt -> evt.kind() == OVERFLOW)) {
+            metrics.recordWatchEvents(events.size());
+            if(isInStorm(dir, events)) {
+                // the directory is rescanned once the storm settles
+                metrics.recordStormEvents(events.size());
+            } else if(events.stream().anyMatch(evt -> evt.kind() == OVERFLOW)) {
+                metrics.recordOverflow();
                 refreshOrLogError(dir);
             } else {
-                for(WatchEvent<?> evt: key.pollEvents()) {
+                for(WatchEvent<?> evt: events) {
                     @SuppressWarnings("unchecked")
                     WatchEvent<Path> event = (WatchEvent<Path>) evt;
                     processEvent(dir, event);
                 }
             }
+            span.finish();
 
             if(!key.reset()) {
-                model.delete(dir, externalInitiator);
+                dirWatcher.forget(key);
+                tree.delete(dir, externalInitiator);
             }
         }
     }
 
+    /**
+     * Counts the given events towards the rate of the directory, and tells
+     * whether the directory, or one of its ancestors, is in a storm.
+     */
+    private boolean isInStorm(Path dir, List<WatchEvent<?>> events) {
+        if(stormThreshold == 0 && storms.isEmpty()) {
+            return false;
+        }
+        long now = System.nanoTime();
+        for(Path d = dir; d != null; d = d.getParent()) {
+            long[] lastEvent = storms.get(d);
+            if(lastEvent != null) {
+                lastEvent[0] = now;
+                return true;
+            }
+        }
+        if(stormThreshold == 0) {
+            return false;
+        }
+
+        if(now - eventCountsStart >= 1_000_000_000L) {
+            eventCounts.clear();
+            eventCountsStart = now;
+        }
+        int count = 0;
+        for(WatchEvent<?> evt: events) {
+            count += evt.count();
+        }
+        count = eventCounts.merge(dir, count, Integer::sum);
+        if(count <= stormThreshold) {
+            return false;
+        }
+
+        // storms within the directory are subsumed by this one
+        eventCounts.remove(dir);
+        storms.keySet().removeIf(d -> d.startsWith(dir));
+        long[] lastEvent = { now };
+        storms.put(dir, lastEvent);
+        metrics.recordStorm();
+        dirWatcher.schedule(() -> settleStorm(dir, lastEvent), stormSettleMillis);
+        return true;
+    }
+
+    private void settleStorm(Path dir, long[] lastEvent) {
+        if(storms.get(dir) != lastEvent) {
+            return; // subsumed by a storm in an ancestor
+        }
+        long quietMillis = (System.nanoTime() - lastEvent[0]) / 1_000_000;
+        if(quietMillis < stormSettleMillis) {
+            dirWatcher.schedule(() -> settleStorm(dir, lastEvent), stormSettleMillis - quietMillis);
+        } else {
+            storms.remove(dir);
+            if(tree.contains(dir)) {
+                rescan(dir);
+            }
+        }
+    }
+
+    private void processCoalescedKeys(List<WatchKey> keys) {
+        for(WatchKey key: keys) {
+            Path dir = (Path) key.watchable();
+            if(!tree.containsPrefixOf(dir)) {
+                dirWatcher.unwatch(key);
+            } else if(!key.isValid()) {
+                dirWatcher.forget(key);
+                if(tree.contains(dir)) {
+                    tree.delete(dir, externalInitiator);
+                }
+            } else {
+                markDirty(dir);
+            }
+        }
+    }
+
+    /**
+     * Marks the given directory for a rescan in the next batch.
+     */
+    private void markDirty(Path dir) {
+        dirtyDirs.add(dir);
+        if(!metrics.isOverloaded()) {
+            metrics.setOverloaded(true);
+            overloaded.push(true);
+        }
+        if(!rescanning) {
+            rescanDirtyDirs();
+        }
+    }
+
+    private void rescanDirtyDirs() {
+        List<CompletableFuture<Void>> rescans = new ArrayList<>();
+        for(Path dir: dirtyDirs) {
+            if(!hasAncestorIn(dir, dirtyDirs) && tree.contains(dir)) {
+                rescans.add(rescan(dir));
+            }
+        }
+        dirtyDirs.clear();
+        rescanning = true;
+        CompletableFuture.allOf(rescans.toArray(new CompletableFuture<?>[rescans.size()]))
+                .whenCompleteAsync((nothing, ex) -> {
+                    rescanning = false;
+                    if(!dirtyDirs.isEmpty()) {
+                        rescanDirtyDirs();
+                    } else {
+                        metrics.setOverloaded(false);
+                        overloaded.push(false);
+                    }
+                }, clientThreadExecutor);
+    }
+
+    private CompletableFuture<Void> rescan(Path dir) {
+        return dirWatcher.getTree(dir, tree.getPathFilter(), attributeReader)
+                .<Void>handleAsync((tree, ex) -> {
+                    if(ex == null) {
+                        this.tree.sync(tree);
+                        watchTree(tree);
+                        pollFollowersUnder(dir);
+                    } else if(ex instanceof NoSuchFileException) {
+                        // deleted in the meantime; so is its watch key
+                        if(this.tree.contains(dir)) {
+                            this.tree.delete(dir, externalInitiator);
+                        }
+                    } else {
+                        localErrors.push(ex);
+                    }
+                    return null;
+                }, clientThreadExecutor)
+                .toCompletableFuture();
+    }
+
+    /**
+     * Polls the followers of files within a rescanned directory, whose
+     * individual events may have been lost.
+     */
+    private void pollFollowersUnder(Path dir) {
+        for(List<FileFollower> followersOfFile: followers.values()) {
+            for(FileFollower follower: followersOfFile) {
+                if(follower.getFile().startsWith(dir)) {
+                    follower.poll();
+                }
+            }
+        }
+    }
+
+    private static boolean hasAncestorIn(Path path, Set<Path> dirs) {
+        for(Path p = path.getParent(); p != null; p = p.getParent()) {
+            if(dirs.contains(p)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     private void processEvent(Path dir, WatchEvent<Path> event) {
         // Context for directory entry event is the file name of entry
         Path relChild = event.context();
@@ -183,61 +851,175 @@ public class LiveDirs<I, T> {
 
         Kind<Path> kind = event.kind();
 
+        if(!followers.isEmpty()) {
+            List<FileFollower> followersOfChild = followers.get(child);
+            if(followersOfChild != null) {
+                for(FileFollower follower: followersOfChild) {
+                    follower.poll();
+                }
+            }
+        }
+
         if(kind == ENTRY_MODIFY) {
             handleModification(child, externalInitiator);
         } else if(kind == ENTRY_CREATE) {
             handleCreation(child, externalInitiator);
         } else if(kind == ENTRY_DELETE) {
-            model.delete(child, externalInitiator);
+            handleDeletion(child, externalInitiator);
         } else {
             throw new AssertionError("unreachable code");
         }
     }
 
     private void handleCreation(Path path, I initiator) {
-        if(Files.isDirectory(path)) {
-            handleDirCreation(path, initiator);
+        AttributeReader.Attributes read;
+        try {
+            read = attributeReader.read(path);
+        } catch (IOException e) {
+            localErrors.push(e);
+            return;
+        }
+        BasicFileAttributes attrs = read.basic;
+
+        // a deletion held back for this very path has to happen first
+        if(pendingMoves.values().remove(path)) {
+            tree.delete(path, initiator);
+        }
+
+        if(!tree.isIncluded(path, attrs.isDirectory())) {
+            tree.setHasExclusions(path.getParent(), true);
+            return;
+        }
+
+        if(attrs.isDirectory()) {
+            Path from = attrs.fileKey() != null ? pendingMoves.remove(attrs.fileKey()) : null;
+            if(from != null && attrs.lastModifiedTime().equals(tree.getDirectoryModificationTime(from))) {
+                handleMove(from, path, initiator);
+            } else {
+                if(from != null) {
+                    // the file key of the deleted directory was reused
+                    tree.delete(from, initiator);
+                }
+                handleDirCreation(path, initiator);
+            }
         } else {
-            handleFileCreation(path, initiator);
+            tree.addFile(path, initiator, attrs.lastModifiedTime(), read.captured);
         }
     }
 
-    private void handleFileCreation(Path path, I initiator) {
-        try {
-            FileTime timestamp = Files.getLastModifiedTime(path);
-            model.addFile(path, initiator, timestamp);
-        } catch (IOException e) {
-            localErrors.push(e);
+    private void handleDeletion(Path path, I initiator) {
+        Object fileKey = moveDetectionWindow > 0 ? tree.getDirectoryKey(path) : null;
+        if(fileKey == null) {
+            tree.delete(path, initiator);
+        } else {
+            pendingMoves.put(fileKey, path);
+            dirWatcher.schedule(() -> {
+                if(pendingMoves.remove(fileKey, path) && tree.contains(path)) {
+                    tree.delete(path, initiator);
+                }
+            }, moveDetectionWindow);
+        }
+    }
+
+    private void handleMove(Path from, Path to, I initiator) {
+        if(tree.move(from, to, initiator)) {
+            // watch keys of the moved directories still refer to the old paths
+            dirWatcher.unwatchTree(from, tree::contains);
+            PathNode tree = this.tree.getTree(to);
+            if(tree != null) {
+                watchTree(tree);
+            }
+        } else {
+            tree.delete(from, initiator);
+            handleDirCreation(to, initiator);
         }
     }
 
     private void handleDirCreation(Path path, I initiator) {
-        if(model.containsPrefixOf(path)) {
-            model.addDirectory(path, initiator);
+        if(tree.containsPrefixOf(path)) {
+            tree.addDirectory(path, initiator);
             dirWatcher.watchOrLogError(path);
         }
-        refreshOrLogError(path);
+        // a tree copied or moved by an I/O operation is already up to date
+        if(!dirWatcher.consumeFresh(path)) {
+            refreshOrLogError(path);
+        }
     }
 
     private void handleModification(Path path, I initiator) {
+        AttributeReader.Attributes attrs;
         try {
-            FileTime timestamp = Files.getLastModifiedTime(path);
-            model.updateModificationTime(path, timestamp, initiator);
+            attrs = attributeReader.read(path);
         } catch (IOException e) {
             localErrors.push(e);
+            return;
+        }
+        FileTime timestamp = attrs.basic.lastModifiedTime();
+
+        if(contentHashing && tree.isOutdated(path, timestamp)) {
+            wrap(dirWatcher.hashFile(path)).whenComplete((hash, ex) -> {
+                // if hashing failed, the file is most likely gone already
+                // and its deletion is on the way
+                if(ex == null) {
+                    tree.updateContent(path, timestamp, hash, attrs.captured, initiator);
+                }
+            });
+        } else {
+            tree.updateModificationTime(path, timestamp, attrs.captured, initiator);
         }
     }
 
     private void watchTree(PathNode tree) {
-        if(tree.isDirectory()) {
-            dirWatcher.watchOrLogError(tree.getPath());
-            for(PathNode child: tree.getChildren()) {
-                watchTree(child);
-            }
+        // the top-level directory may have been removed while scanning,
+        // or the path filter changed
+        if(this.tree.isIncluded(tree.getPath(), tree.isDirectory())) {
+            dirWatcher.watchTree(tree);
         }
     }
 
+    /**
+     * Populates the model from the snapshot of the given top-level directory
+     * and validates it in the background. Falls back to {@link #refresh(Path)}
+     * if there is no usable snapshot.
+     */
+    private void restore(Path dir) {
+        Path file = TreeSnapshot.fileFor(snapshotDir, dir);
+        wrap(dirWatcher.loadSnapshot(file, dir))
+                .thenAccept(snapshot -> {
+                    if(snapshot == null) {
+                        refreshOrLogError(dir);
+                    } else {
+                        tree.sync(snapshot);
+                        validate(snapshot);
+                    }
+                })
+                .whenComplete((nothing, ex) -> {
+                    if(ex != null) {
+                        localErrors.push(ex);
+                        refreshOrLogError(dir);
+                    }
+                });
+    }
+
+    private void validate(PathNode snapshot) {
+        wrap(dirWatcher.validateSnapshot(snapshot, tree.getPathFilter(), attributeReader))
+                .thenAccept(tree -> {
+                    this.tree.sync(tree);
+                    watchTree(tree);
+                })
+                .whenComplete((nothing, ex) -> {
+                    if(ex != null) {
+                        localErrors.push(ex);
+                    }
+                });
+    }
+
     private void refreshOrLogError(Path path) {
+        if(dirWatcher.isQueueFull()) {
+            metrics.recordShedOperation();
+            markDirty(path);
+            return;
+        }
         refresh(path).whenComplete((nothing, ex) -> {
             if(ex != null) {
                 localErrors.push(ex);
@@ -2,19 +2,36 @@ package org.fxmisc.livedirs;
 
 import java.nio.charset.Charset;
 import java.nio.file.Path;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
 import java.util.concurrent.Executor;
+import java.util.function.Consumer;
 
 class LiveDirsIO<I> implements InitiatorTrackingIOFacility<I> {
     private final DirWatcher dirWatcher;
-    private final LiveDirsModel<I, ?> model;
+    private final LiveDirsTree<I> tree;
     private final Executor clientThreadExecutor;
+    private final ContentCache cache = new ContentCache();
+    private AttributeReader attributeReader = AttributeReader.BASIC;
 
-    public LiveDirsIO(DirWatcher dirWatcher, LiveDirsModel<I, ?> model, Executor clientThreadExecutor) {
+    public LiveDirsIO(DirWatcher dirWatcher, LiveDirsTree<I> tree, Executor clientThreadExecutor) {
         this.dirWatcher = dirWatcher;
-        this.model = model;
+        this.tree = tree;
         this.clientThreadExecutor = clientThreadExecutor;
+
+        tree.modifications().subscribe(u -> cache.invalidate(u.getPath()));
+        tree.deletions().subscribe(u -> cache.invalidate(u.getPath()));
+        // content of a moved directory is gone from its old paths
+        tree.moves().subscribe(u -> cache.invalidate(u.getOldPath()));
+    }
+
+    void setCacheCapacity(long maxBytes) {
+        cache.setCapacity(maxBytes);
+    }
+
+    void setAttributeReader(AttributeReader reader) {
+        this.attributeReader = reader;
     }
 
     @Override
@@ -22,7 +39,8 @@ class LiveDirsIO<I> implements InitiatorTrackingIOFacility<I> {
         CompletableFuture<Void> created = new CompletableFuture<>();
         dirWatcher.createFile(file,
                 lastModified -> {
-                    model.addFile(file, initiator, lastModified);
+                    cache.invalidate(file);
+                    tree.addFile(file, initiator, lastModified);
                     created.complete(null);
                 },
                 created::completeExceptionally);
@@ -34,8 +52,8 @@ class LiveDirsIO<I> implements InitiatorTrackingIOFacility<I> {
         CompletableFuture<Void> created = new CompletableFuture<>();
         dirWatcher.createDirectory(dir,
                 () -> {
-                    if(model.containsPrefixOf(dir)) {
-                        model.addDirectory(dir, initiator);
+                    if(tree.containsPrefixOf(dir)) {
+                        tree.addDirectory(dir, initiator);
                         dirWatcher.watchOrLogError(dir);
                     }
                     created.complete(null);
@@ -49,7 +67,9 @@ class LiveDirsIO<I> implements InitiatorTrackingIOFacility<I> {
         CompletableFuture<Void> saved = new CompletableFuture<>();
         dirWatcher.saveTextFile(file, content, charset,
                 lastModified -> {
-                    model.updateModificationTime(file, lastModified, initiator);
+                    // the modification time may not have advanced
+                    cache.invalidate(file);
+                    tree.updateModificationTime(file, lastModified, initiator);
                     saved.complete(null);
                 },
                 saved::completeExceptionally);
@@ -61,7 +81,8 @@ class LiveDirsIO<I> implements InitiatorTrackingIOFacility<I> {
         CompletableFuture<Void> saved = new CompletableFuture<>();
         dirWatcher.saveBinaryFile(file, content,
                 lastModified -> {
-                    model.updateModificationTime(file, lastModified, initiator);
+                    cache.invalidate(file);
+                    tree.updateModificationTime(file, lastModified, initiator);
                     saved.complete(null);
                 },
                 saved::completeExceptionally);
@@ -73,7 +94,7 @@ class LiveDirsIO<I> implements InitiatorTrackingIOFacility<I> {
         CompletableFuture<Void> deleted = new CompletableFuture<>();
         dirWatcher.deleteFileOrEmptyDirectory(file,
                 () -> {
-                    model.delete(file, initiator);
+                    tree.delete(file, initiator);
                     deleted.complete(null);
                 },
                 deleted::completeExceptionally);
@@ -85,29 +106,188 @@ class LiveDirsIO<I> implements InitiatorTrackingIOFacility<I> {
         CompletableFuture<Void> deleted = new CompletableFuture<>();
         dirWatcher.deleteTree(root,
                 () -> {
-                    model.delete(root, initiator);
+                    tree.delete(root, initiator);
                     deleted.complete(null);
                 },
                 deleted::completeExceptionally);
         return wrap(deleted);
     }
 
+    @Override
+    public CompletionStage<Void> copyTree(Path source, Path target, I initiator) {
+        CompletableFuture<Void> copied = new CompletableFuture<>();
+        dirWatcher.copyTree(source, target, tree.getPathFilter(), attributeReader,
+                copy -> {
+                    cache.invalidate(target);
+                    Path parent = target.getParent();
+                    if(parent != null && tree.contains(parent)) {
+                        addTree(copy, initiator);
+                    }
+                    copied.complete(null);
+                },
+                copied::completeExceptionally);
+        return wrap(copied);
+    }
+
+    @Override
+    public CompletionStage<Void> moveTree(Path source, Path target, I initiator) {
+        CompletableFuture<Void> moved = new CompletableFuture<>();
+        // unless the tree moves within the model, it is scanned right away,
+        // before watch events of the move reach the client thread
+        PathFilter filter = tree.isMoveWithin(source, target) ? null : tree.getPathFilter();
+        dirWatcher.moveTree(source, target, filter, attributeReader,
+                scanned -> {
+                    cache.invalidate(source);
+                    cache.invalidate(target);
+                    if(scanned == null && tree.move(source, target, initiator)) {
+                        // watch keys of the moved directories still refer to the old paths
+                        dirWatcher.unwatchTree(source, tree::contains);
+                        PathNode subtree = tree.getTree(target);
+                        if(subtree != null && subtree.isDirectory()) {
+                            dirWatcher.watchTree(subtree);
+                            dirWatcher.markFresh(target);
+                        }
+                        moved.complete(null);
+                    } else {
+                        if(tree.containsPrefixOf(source)) {
+                            tree.delete(source, initiator);
+                        }
+                        dirWatcher.unwatchTree(source, tree::contains);
+                        moveIntoModel(target, scanned, initiator, moved);
+                    }
+                },
+                moved::completeExceptionally);
+        return wrap(moved);
+    }
+
+    private void moveIntoModel(Path target, PathNode scanned, I initiator, CompletableFuture<Void> moved) {
+        Path parent = target.getParent();
+        if(parent == null || !tree.contains(parent)) {
+            moved.complete(null);
+        } else if(scanned != null) {
+            addTree(scanned, initiator);
+            moved.complete(null);
+        } else {
+            // the model changed in the meantime
+            dirWatcher.getTree(target, tree.getPathFilter(), attributeReader).whenCompleteAsync((rescanned, ex) -> {
+                if(ex == null) {
+                    addTree(rescanned, initiator);
+                    moved.complete(null);
+                } else {
+                    moved.completeExceptionally(ex);
+                }
+            }, clientThreadExecutor);
+        }
+    }
+
+    /**
+     * Puts a tree created by an operation into the model in one update and
+     * watches its directories.
+     */
+    private void addTree(PathNode added, I initiator) {
+        if(!tree.isIncluded(added.getPath(), added.isDirectory())) {
+            return;
+        }
+        tree.sync(added, initiator);
+        if(added.isDirectory()) {
+            dirWatcher.watchTree(added);
+            dirWatcher.markFresh(added.getPath());
+        }
+    }
+
     @Override
     public CompletionStage<String> loadTextFile(Path file, Charset charset) {
-        CompletableFuture<String> loaded = new CompletableFuture<>();
-        dirWatcher.loadTextFile(file, charset,
+        if(isCached(file)) {
+            // approximate footprint of a Java string
+            return wrap(cache.get(file, charset, () -> readTextFile(file, charset), s -> 2L * s.length()));
+        } else {
+            return wrap(readTextFile(file, charset));
+        }
+    }
+
+    @Override
+    public CompletionStage<byte[]> loadBinaryFile(Path file) {
+        if(isCached(file)) {
+            // every caller gets its own copy of the cached array
+            return wrap(cache.get(file, null, () -> readBinaryFile(file), b -> b.length)
+                    .thenApply(byte[]::clone));
+        } else {
+            return wrap(readBinaryFile(file));
+        }
+    }
+
+    @Override
+    public CompletionStage<byte[]> loadBinaryFile(Path file, long offset, int length) {
+        CompletableFuture<byte[]> loaded = new CompletableFuture<>();
+        dirWatcher.loadBinaryFile(file, offset, length,
                 loaded::complete,
                 loaded::completeExceptionally);
         return wrap(loaded);
     }
 
     @Override
-    public CompletionStage<byte[]> loadBinaryFile(Path file) {
+    public CompletionStage<List<String>> loadTail(Path file, int lineCount, Charset charset) {
+        CompletableFuture<List<String>> loaded = new CompletableFuture<>();
+        dirWatcher.loadTail(file, lineCount, charset,
+                loaded::complete,
+                loaded::completeExceptionally);
+        return wrap(loaded);
+    }
+
+    @Override
+    public CompletionStage<Void> loadChunks(Path file, int chunkSize, Consumer<byte[]> consumer) {
+        CompletableFuture<Void> loaded = new CompletableFuture<>();
+        if(chunkSize <= 0) {
+            loaded.completeExceptionally(new IllegalArgumentException("Chunk size must be positive: " + chunkSize));
+        } else {
+            loadChunk(file, 0, chunkSize, consumer, loaded);
+        }
+        return wrap(loaded);
+    }
+
+    private void loadChunk(Path file, long offset, int chunkSize,
+            Consumer<byte[]> consumer, CompletableFuture<Void> loaded) {
+        dirWatcher.loadBinaryFile(file, offset, chunkSize,
+                chunk -> {
+                    try {
+                        if(chunk.length > 0) {
+                            consumer.accept(chunk);
+                        }
+                    } catch(Throwable t) {
+                        loaded.completeExceptionally(t);
+                        return;
+                    }
+                    if(chunk.length < chunkSize) {
+                        loaded.complete(null);
+                    } else {
+                        loadChunk(file, offset + chunkSize, chunkSize, consumer, loaded);
+                    }
+                },
+                loaded::completeExceptionally);
+    }
+
+    /**
+     * Only content of files in the tree is cached, since only those files
+     * are watched for changes that invalidate the cached content.
+     */
+    private boolean isCached(Path file) {
+        return cache.isEnabled() && tree.contains(file);
+    }
+
+    private CompletableFuture<String> readTextFile(Path file, Charset charset) {
+        CompletableFuture<String> loaded = new CompletableFuture<>();
+        dirWatcher.loadTextFile(file, charset,
+                loaded::complete,
+                loaded::completeExceptionally);
+        return loaded;
+    }
+
+    private CompletableFuture<byte[]> readBinaryFile(Path file) {
         CompletableFuture<byte[]> loaded = new CompletableFuture<>();
         dirWatcher.loadBinaryFile(file,
                 loaded::complete,
                 loaded::completeExceptionally);
-        return wrap(loaded);
+        return loaded;
     }
 
     private <T> CompletionStage<T> wrap(CompletionStage<T> stage) {
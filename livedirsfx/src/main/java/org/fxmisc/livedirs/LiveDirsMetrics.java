@@ -0,0 +1,343 @@
+package org.fxmisc.livedirs;
+
+import java.nio.file.Path;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runtime metrics of a {@link LiveDirs} instance: counters and gauges of
+ * the watcher, and latency histograms of its I/O operations, refreshes and
+ * the hand-over of results to the client thread. Metrics can be read from
+ * any thread. Counters and histograms accumulate from the creation of the
+ * LiveDirs instance; rates, such as watch events per second, are obtained
+ * by sampling a counter periodically.
+ *
+ * <p>Recording a metric does not allocate. Measuring latencies adds a
+ * timestamp and a wrapper to every operation and every hand-over to the
+ * client thread; it can be turned off with
+ * {@link #setLatencyRecordingEnabled(boolean)}. Optionally, LiveDirs
+ * activity can also be reported as Java Flight Recorder events, see
+ * {@link #setJfrEventsEnabled(boolean)}.
+ */
+public final class LiveDirsMetrics {
+
+    /**
+     * Kinds of operations performed on the I/O thread.
+     */
+    public enum Operation {
+        /** Scanning of a directory tree, for a refresh or a new top-level directory. */
+        SCAN,
+
+        /** Creation of a file or directory. */
+        CREATE,
+
+        /** Saving of a file. */
+        SAVE,
+
+        /** Loading of a file. */
+        LOAD,
+
+        /** Deletion of a file or directory tree. */
+        DELETE,
+
+        /** Copying of a file or directory tree. */
+        COPY,
+
+        /** Moving of a file or directory tree. */
+        MOVE,
+
+        /** Reading of a file for content fingerprinting. */
+        HASH,
+
+        /** Loading, validation or saving of a persistent snapshot. */
+        SNAPSHOT,
+    }
+
+    /**
+     * Activity traced for JFR, finished when the activity completes.
+     */
+    interface Span {
+        Span NONE = () -> {};
+
+        void finish();
+    }
+
+    /**
+     * Source of {@link Span}s. The JFR implementation is loaded by name, so
+     * that no other class links against {@code jdk.jfr}.
+     */
+    interface Tracer {
+        Span beginUpdate(String cause, Path path);
+
+        Span beginIO(Operation operation, Path path);
+    }
+
+    private static final String JFR_TRACER = "org.fxmisc.livedirs.JfrEvents";
+
+    private final LongAdder watchEvents = new LongAdder();
+    private final LongAdder overflows = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder coalescedKeys = new LongAdder();
+    private final LongAdder shedOperations = new LongAdder();
+    private final LongAdder overloads = new LongAdder();
+    private final LongAdder storms = new LongAdder();
+    private final LongAdder stormEvents = new LongAdder();
+    private final LatencyHistogram refreshes = new LatencyHistogram();
+    private final LatencyHistogram eventThreadLatencies = new LatencyHistogram();
+    private final LatencyHistogram[] ioLatencies = new LatencyHistogram[Operation.values().length];
+
+    private DirWatcher dirWatcher = null;
+    private volatile boolean overloaded = false;
+    private volatile Tracer jfrTracer = null;
+    private volatile boolean latencyEnabled = true;
+
+    LiveDirsMetrics() {
+        for(int i = 0; i < ioLatencies.length; ++i) {
+            ioLatencies[i] = new LatencyHistogram();
+        }
+    }
+
+    void attach(DirWatcher dirWatcher) {
+        this.dirWatcher = dirWatcher;
+    }
+
+    /**
+     * Number of file-system events delivered by the watch service.
+     */
+    public long getWatchEventCount() {
+        return watchEvents.sum();
+    }
+
+    /**
+     * Number of times the watch service lost events, each of which caused
+     * a rescan of the affected directory.
+     */
+    public long getOverflowCount() {
+        return overflows.sum();
+    }
+
+    /**
+     * Number of errors reported via {@link LiveDirs#errors()}.
+     */
+    public long getErrorCount() {
+        return errors.sum();
+    }
+
+    /**
+     * Number of times the events of a directory were dropped, and the
+     * directory marked for a rescan instead, because the client thread was
+     * behind.
+     */
+    public long getCoalescedKeyCount() {
+        return coalescedKeys.sum();
+    }
+
+    /**
+     * Number of optional I/O operations, such as content fingerprinting or
+     * the scan of a new directory, that were skipped or deferred because the
+     * I/O queue was full.
+     */
+    public long getShedOperationCount() {
+        return shedOperations.sum();
+    }
+
+    /**
+     * Number of times LiveDirs switched to rescanning directories instead of
+     * processing their individual events.
+     */
+    public long getOverloadCount() {
+        return overloads.sum();
+    }
+
+    /**
+     * Number of event storms detected, each of which was followed by a
+     * rescan of the affected directory.
+     *
+     * @see LiveDirs#setStormThreshold(int, long)
+     */
+    public long getStormCount() {
+        return storms.sum();
+    }
+
+    /**
+     * Number of events that were not processed individually because their
+     * directory was in a storm.
+     */
+    public long getStormEventCount() {
+        return stormEvents.sum();
+    }
+
+    /**
+     * Whether LiveDirs is currently catching up by rescanning directories.
+     *
+     * @see LiveDirs#overloaded()
+     */
+    public boolean isOverloaded() {
+        return overloaded;
+    }
+
+    /**
+     * Number of directories with signalled changes waiting for the client
+     * thread.
+     */
+    public int getPendingWatchKeyCount() {
+        return dirWatcher.getPendingKeyCount();
+    }
+
+    /**
+     * Number of directories currently watched.
+     */
+    public int getWatchCount() {
+        return dirWatcher.getWatchCount();
+    }
+
+    /**
+     * Number of operations waiting for the I/O thread.
+     */
+    public int getIOQueueDepth() {
+        return dirWatcher.getQueueDepth();
+    }
+
+    /**
+     * Durations of refreshes, from the request to the completion of the
+     * update of the directory tree. Includes the initial scan of every
+     * top-level directory.
+     */
+    public LatencyHistogram getRefreshDurations() {
+        return refreshes;
+    }
+
+    /**
+     * Latencies of operations of the given kind, from submission to
+     * completion on the I/O thread, including the time spent waiting in
+     * the queue.
+     */
+    public LatencyHistogram getIOLatencies(Operation operation) {
+        return ioLatencies[operation.ordinal()];
+    }
+
+    /**
+     * Delays between handing a result or a watch event over to the client
+     * thread executor and the client thread starting to process it. High
+     * values mean the client thread, e.g. the JavaFX application thread,
+     * is busy.
+     */
+    public LatencyHistogram getEventThreadLatencies() {
+        return eventThreadLatencies;
+    }
+
+    /**
+     * Enables or disables recording of the latency histograms: refresh
+     * durations, I/O latencies and client thread latencies. While disabled,
+     * the histograms keep their values, and operations and results are
+     * handed over without measuring them. Enabled by default.
+     */
+    public void setLatencyRecordingEnabled(boolean enabled) {
+        latencyEnabled = enabled;
+    }
+
+    public boolean isLatencyRecordingEnabled() {
+        return latencyEnabled;
+    }
+
+    /**
+     * Enables or disables reporting of LiveDirs activity as Java Flight
+     * Recorder events: processing of watch events and refreshes on the
+     * client thread ({@code org.fxmisc.livedirs.Update}), and operations on
+     * the I/O thread ({@code org.fxmisc.livedirs.IOOperation}). The events
+     * are recorded only while a recording that enables them is running.
+     * Disabled by default.
+     *
+     * @return whether JFR events are enabled, which is {@code false} on a
+     * JVM without JFR.
+     */
+    public boolean setJfrEventsEnabled(boolean enabled) {
+        jfrTracer = enabled ? loadJfrTracer() : null;
+        return jfrTracer != null;
+    }
+
+    private static Tracer loadJfrTracer() {
+        try {
+            Class.forName("jdk.jfr.Event");
+            return (Tracer) Class.forName(JFR_TRACER).getDeclaredConstructor().newInstance();
+        } catch(ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+
+    void recordWatchEvents(int count) {
+        watchEvents.add(count);
+    }
+
+    void recordOverflow() {
+        overflows.increment();
+    }
+
+    void recordError() {
+        errors.increment();
+    }
+
+    void recordCoalescedKey() {
+        coalescedKeys.increment();
+    }
+
+    void recordShedOperation() {
+        shedOperations.increment();
+    }
+
+    void recordStorm() {
+        storms.increment();
+    }
+
+    void recordStormEvents(int count) {
+        stormEvents.add(count);
+    }
+
+    void setOverloaded(boolean overloaded) {
+        if(overloaded && !this.overloaded) {
+            overloads.increment();
+        }
+        this.overloaded = overloaded;
+    }
+
+    void recordRefresh(long nanos) {
+        if(latencyEnabled) {
+            refreshes.record(nanos);
+        }
+    }
+
+    void recordIO(Operation operation, long nanos) {
+        if(latencyEnabled) {
+            ioLatencies[operation.ordinal()].record(nanos);
+        }
+    }
+
+    void recordEventThreadLatency(long nanos) {
+        if(latencyEnabled) {
+            eventThreadLatencies.record(nanos);
+        }
+    }
+
+    /**
+     * Whether I/O operations have to be wrapped to measure their latency or
+     * to trace them for JFR.
+     */
+    boolean isTracingIO() {
+        return latencyEnabled || jfrTracer != null;
+    }
+
+    /**
+     * Starts tracing an update of the directory tree on the client thread.
+     */
+    Span beginUpdate(String cause, Path path) {
+        Tracer tracer = jfrTracer;
+        return tracer != null ? tracer.beginUpdate(cause, path) : Span.NONE;
+    }
+
+    /**
+     * Starts tracing an operation on the I/O thread.
+     */
+    Span beginIO(Operation operation, Path path) {
+        Tracer tracer = jfrTracer;
+        return tracer != null ? tracer.beginIO(operation, path) : Span.NONE;
+    }
+}
@@ -1,133 +1,229 @@
 package org.fxmisc.livedirs;
 
 import java.nio.file.Path;
-import java.nio.file.attribute.FileTime;
-import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.function.Function;
-import java.util.stream.Stream;
 
 import javafx.scene.control.TreeItem;
 
-import org.reactfx.EventSource;
 import org.reactfx.EventStream;
 
+/**
+ * {@link TreeItem} view of a {@link LiveDirsTree}. The items are created
+ * from the entries of the tree and then kept in sync with its structural
+ * changes; everything else is delegated to the tree. Only the items of the
+ * top-level directories are created upfront. The items of the content of a
+ * directory are created once the children of its item are requested, so
+ * entries in parts of the tree that are never expanded have no items.
+ *
+ * <p>A nested top-level directory that shares the entries of an enclosing
+ * tree gets items of its own, so an entry can have an item under each of
+ * the top-level items it appears in.
+ */
 class LiveDirsModel<I, T> implements DirectoryModel<I, T> {
 
     private final TreeItem<T> root = new TreeItem<>();
-    private final EventSource<Update<I>> creations = new EventSource<>();
-    private final EventSource<Update<I>> deletions = new EventSource<>();
-    private final EventSource<Update<I>> modifications = new EventSource<>();
-    private final EventSource<Throwable> errors = new EventSource<>();
-    private final Reporter<I> reporter;
-    private final I defaultInitiator;
-    private final Function<T, Path> projector;
+    private final LiveDirsTree<I> tree;
     private final Function<Path, T> injector;
 
     private GraphicFactory graphicFactory = DEFAULT_GRAPHIC_FACTORY;
 
-    public LiveDirsModel(I defaultInitiator, Function<T, Path> projector, Function<Path, T> injector) {
-        this.defaultInitiator = defaultInitiator;
-        this.projector = projector;
+    LiveDirsModel(LiveDirsTree<I> tree, Function<Path, T> injector) {
+        this.tree = tree;
         this.injector = injector;
-        this.reporter = new Reporter<I>() {
-            @Override
-            public void reportCreation(Path baseDir, Path relPath, I initiator) {
-                creations.push(Update.creation(baseDir, relPath, initiator));
-            }
 
-            @Override
-            public void reportDeletion(Path baseDir, Path relPath, I initiator) {
-                deletions.push(Update.deletion(baseDir, relPath, initiator));
+        // Graphics are only created for items that are actually displayed,
+        // i.e. whose ancestors are all expanded. Tree events bubble up to the
+        // root, so two handlers here cover the whole tree.
+        root.addEventHandler(TreeItem.<T>childrenModificationEvent(), evt -> {
+            if(evt.wasAdded() && isShowing(evt.getTreeItem())) {
+                for(TreeItem<T> child: evt.getAddedChildren()) {
+                    updateGraphics(child);
+                }
+            }
+        });
+        root.addEventHandler(TreeItem.<T>branchExpandedEvent(), evt -> {
+            TreeItem<T> item = evt.getTreeItem();
+            if(item != root && isShowing(item)) {
+                updateGraphics(item);
             }
+        });
+
+        List<TreeItem<T>> topLevelItems = new ArrayList<>();
+        for(DirEntry dir: tree.getTopLevelDirs()) {
+            topLevelItems.add(new View().apply(dir));
+        }
+        root.getChildren().setAll(topLevelItems);
 
+        tree.setListener(new TreeListener() {
             @Override
-            public void reportModification(Path baseDir, Path relPath, I initiator) {
-                modifications.push(Update.modification(baseDir, relPath, initiator));
+            public void entryAdded(DirEntry parent, PathEntry entry, int index) {
+                if(parent == null) {
+                    root.getChildren().add(index, new View().apply(entry));
+                    return;
+                }
+                for(PathItem<T> parentItem: itemsOf(parent)) {
+                    if(parentItem.isLoaded()) {
+                        parentItem.getChildren().add(index, itemFor(entry, parentItem.getItemFactory()));
+                    }
+                }
             }
 
             @Override
-            public void reportError(Throwable error) {
-                errors.push(error);
+            public void entryRemoved(DirEntry parent, PathEntry entry, int index) {
+                if(parent == null) {
+                    forget((PathItem<T>) root.getChildren().remove(index));
+                    return;
+                }
+                for(PathItem<T> parentItem: itemsOf(parent)) {
+                    if(parentItem.isLoaded()) {
+                        parentItem.getChildren().remove(index);
+                    }
+                }
             }
-        };
+        });
     }
 
     @Override public TreeItem<T> getRoot() { return root; }
-    @Override public EventStream<Update<I>> creations() { return creations; }
-    @Override public EventStream<Update<I>> deletions() { return deletions; }
-    @Override public EventStream<Update<I>> modifications() { return modifications; }
-
-    public EventStream<Throwable> errors() { return errors; }
+    @Override public EventStream<Update<I>> creations() { return tree.creations(); }
+    @Override public EventStream<Update<I>> deletions() { return tree.deletions(); }
+    @Override public EventStream<Update<I>> modifications() { return tree.modifications(); }
+    @Override public EventStream<Update<I>> moves() { return tree.moves(); }
+    @Override public EventStream<ChangeSet<I>> changes() { return tree.changes(); }
+    @Override public EventStream<Update<I>> updates(Path subtree) { return tree.updates(subtree); }
+    @Override public boolean contains(Path path) { return tree.contains(path); }
+    @Override public EntryAttributes getAttributes(Path path) { return tree.getAttributes(path); }
+    @Override public DirectorySnapshot snapshot() { return tree.snapshot(); }
 
     @Override
     public void setGraphicFactory(GraphicFactory factory) {
         graphicFactory = factory != null ? factory : DEFAULT_GRAPHIC_FACTORY;
+        for(TreeItem<T> topLevelDir: root.getChildren()) {
+            updateGraphics(topLevelDir);
+        }
     }
 
-    @Override
-    public boolean contains(Path path) {
-        return topLevelAncestorStream(path).anyMatch(root ->
-                root.contains(root.getPath().relativize(path)));
-    }
-
-    public boolean containsPrefixOf(Path path) {
-        return root.getChildren().stream()
-                .anyMatch(item -> path.startsWith(projector.apply(item.getValue())));
-    }
-
-    void addTopLevelDirectory(Path dir) {
-        root.getChildren().add(new TopLevelDirItem<>(injector.apply(dir), graphicFactory, projector, injector, reporter));
+    /**
+     * Creates the items of one top-level item and its descendants.
+     */
+    private final class View implements Function<PathEntry, PathItem<T>> {
+        @Override
+        public PathItem<T> apply(PathEntry entry) {
+            return itemFor(entry, this);
+        }
     }
 
-    void updateModificationTime(Path path, FileTime lastModified, I initiator) {
-        for(TopLevelDirItem<I, T> root: getTopLevelAncestorsNonEmpty(path)) {
-            Path relPath = root.getPath().relativize(path);
-            root.updateModificationTime(relPath, lastModified, initiator);
+    /**
+     * Returns the item of the given entry within the given view, creating it
+     * if necessary. A moved entry keeps its item, including expansion state
+     * and children, which are updated to the new paths.
+     */
+    private PathItem<T> itemFor(PathEntry entry, Function<PathEntry, PathItem<T>> view) {
+        for(PathItem<T> item: itemsOf(entry)) {
+            if(item.getItemFactory() == view) {
+                relabel(item);
+                return item;
+            }
         }
+        PathItem<T> item = new PathItem<>(injector.apply(entry.getPath()), entry, view);
+        addPeer(entry, item);
+        return item;
     }
 
-    void addDirectory(Path path, I initiator) {
-        topLevelAncestorStream(path).forEach(root -> {
-            Path relPath = root.getPath().relativize(path);
-            root.addDirectory(relPath, initiator);
-        });
+    /**
+     * Returns the items of the given entry, one per top-level item it
+     * appears under. The peer of an entry is its item, or a list of items
+     * if it is shared.
+     */
+    @SuppressWarnings("unchecked")
+    private List<PathItem<T>> itemsOf(PathEntry entry) {
+        Object peer = entry.peer;
+        if(peer == null) {
+            return Collections.emptyList();
+        } else if(peer instanceof PathItem) {
+            return Collections.singletonList((PathItem<T>) peer);
+        } else {
+            return (List<PathItem<T>>) peer;
+        }
     }
 
-    void addFile(Path path, I initiator, FileTime lastModified) {
-        topLevelAncestorStream(path).forEach(root -> {
-            Path relPath = root.getPath().relativize(path);
-            root.addFile(relPath, lastModified, initiator);
-        });
+    @SuppressWarnings("unchecked")
+    private void addPeer(PathEntry entry, PathItem<T> item) {
+        Object peer = entry.peer;
+        if(peer == null) {
+            entry.peer = item;
+        } else if(peer instanceof PathItem) {
+            List<PathItem<T>> items = new ArrayList<>(2);
+            items.add((PathItem<T>) peer);
+            items.add(item);
+            entry.peer = items;
+        } else {
+            ((List<PathItem<T>>) peer).add(item);
+        }
     }
 
-    void delete(Path path, I initiator) {
-        for(TopLevelDirItem<I, T> root: getTopLevelAncestorsNonEmpty(path)) {
-            Path relPath = root.getPath().relativize(path);
-            root.remove(relPath, initiator);
+    @SuppressWarnings("unchecked")
+    private void removePeer(PathEntry entry, PathItem<T> item) {
+        Object peer = entry.peer;
+        if(peer == item) {
+            entry.peer = null;
+        } else if(peer instanceof List) {
+            List<PathItem<T>> items = (List<PathItem<T>>) peer;
+            items.remove(item);
+            if(items.size() == 1) {
+                entry.peer = items.get(0);
+            }
         }
     }
 
-    void sync(PathNode tree) {
-        Path path = tree.getPath();
-        topLevelAncestorStream(path)
-                .forEach(root -> root.sync(tree, defaultInitiator));
+    /**
+     * Detaches a removed top-level item and its created descendants from
+     * their entries, which may still be shown by other top-level items.
+     */
+    private void forget(PathItem<T> item) {
+        removePeer(item.getEntry(), item);
+        if(item.isDirectory() && item.isLoaded()) {
+            for(TreeItem<T> child: item.getChildren()) {
+                forget((PathItem<T>) child);
+            }
+        }
     }
 
-    private Stream<TopLevelDirItem<I, T>> topLevelAncestorStream(Path path) {
-        return root.getChildren().stream()
-                .filter(item -> path.startsWith(projector.apply(item.getValue())))
-                .map(item -> (TopLevelDirItem<I, T>) item);
+    /**
+     * Updates the values of a moved subtree to match the new paths. Only
+     * created items are updated; the rest get the new paths when created.
+     */
+    private void relabel(PathItem<T> item) {
+        item.setValue(injector.apply(item.getPath()));
+        if(item.isLoaded()) {
+            for(TreeItem<T> child: item.getChildren()) {
+                relabel((PathItem<T>) child);
+            }
+        }
     }
 
-    private List<TopLevelDirItem<I, T>> getTopLevelAncestors(Path path) {
-        return Arrays.asList(topLevelAncestorStream(path)
-                .<TopLevelDirItem<I, T>>toArray(TopLevelDirItem[]::new));
+    /**
+     * Brings the graphic of the given item up to date with the current
+     * graphic factory, and likewise for all of its displayed descendants.
+     * Items in collapsed subtrees are updated once they get expanded.
+     */
+    private void updateGraphics(TreeItem<T> item) {
+        ((PathItem<T>) item).updateGraphic(graphicFactory);
+        if(item.isExpanded()) {
+            for(TreeItem<T> child: item.getChildren()) {
+                updateGraphics(child);
+            }
+        }
     }
 
-    private List<TopLevelDirItem<I, T>> getTopLevelAncestorsNonEmpty(Path path) {
-        List<TopLevelDirItem<I, T>> roots = getTopLevelAncestors(path);
-        assert !roots.isEmpty() : "path resolved against a dir that was reported to be in the model does not have a top-level ancestor in the model";
-        return roots;
+    private boolean isShowing(TreeItem<T> item) {
+        for(TreeItem<T> it = item; it != root; it = it.getParent()) {
+            if(it == null || !it.isExpanded()) {
+                return false;
+            }
+        }
+        return true;
     }
-}
\ No newline at end of file
+}
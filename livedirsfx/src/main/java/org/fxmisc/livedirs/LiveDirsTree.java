@@ -0,0 +1,992 @@
+package org.fxmisc.livedirs;
+
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+
+import org.reactfx.EventSource;
+import org.reactfx.EventStream;
+import org.reactfx.EventStreamBase;
+import org.reactfx.Subscription;
+
+/**
+ * The directory trees of a {@link LiveDirs} instance, as plain data
+ * structures that do not depend on a UI toolkit. Confined to the client
+ * thread.
+ */
+class LiveDirsTree<I> implements DirectoryTree<I> {
+
+    /** Top-level directories in the order they were added. */
+    private final List<TopLevel> topLevelList = new ArrayList<>();
+    private final PathTrie<TopLevel> topLevelDirs = new PathTrie<>();
+
+    /** Trees of the top-level directories that are not views. */
+    private final PathTrie<TopLevelDir<I>> trees = new PathTrie<>();
+    private int viewCount = 0;
+
+    /**
+     * Views whose entries were removed from their trees during the current
+     * operation, or {@code null} if none.
+     */
+    private List<TopLevel> removedViews = null;
+
+    private final EventSource<Update<I>> creations = new EventSource<>();
+    private final EventSource<Update<I>> deletions = new EventSource<>();
+    private final EventSource<Update<I>> modifications = new EventSource<>();
+    private final EventSource<Update<I>> moves = new EventSource<>();
+    private final EventSource<ChangeSet<I>> changes = new EventSource<>();
+
+    /**
+     * Observed streams returned by {@link #updates(Path)}, by subtree.
+     */
+    private final PathTrie<List<SubtreeStream>> subtreeStreams = new PathTrie<>();
+    private final EventSource<Throwable> errors = new EventSource<>();
+    private final Reporter<I> reporter;
+
+    /**
+     * Reports updates relative to a single top-level directory, on the
+     * update streams only. See {@link #report(Update, EventSource)}.
+     */
+    private final Reporter<I> viewReporter;
+    private final I defaultInitiator;
+    private final Executor clientThreadExecutor;
+
+    /**
+     * Updates of the current processing turn, or {@code null} if none were
+     * recorded yet. Only recorded while {@link #changes} is observed.
+     */
+    private List<Update<I>> pendingUpdates = null;
+    private List<Path> pendingReplacedSubtrees = null;
+
+    private TreeListener listener = TreeListener.NONE;
+    private PathFilter filter = PathFilter.ACCEPT_ALL;
+    private NameIndex nameIndex = null;
+
+    LiveDirsTree(I defaultInitiator, Executor clientThreadExecutor) {
+        this.defaultInitiator = defaultInitiator;
+        this.clientThreadExecutor = clientThreadExecutor;
+        this.reporter = new Reporter<I>() {
+            @Override
+            public void reportCreation(Path baseDir, Path relPath, I initiator) {
+                report(Update.creation(baseDir, relPath, initiator), creations);
+            }
+
+            @Override
+            public void reportDeletion(Path baseDir, Path relPath, I initiator) {
+                report(Update.deletion(baseDir, relPath, initiator), deletions);
+            }
+
+            @Override
+            public void reportModification(Path baseDir, Path relPath, I initiator) {
+                report(Update.modification(baseDir, relPath, initiator), modifications);
+            }
+
+            @Override
+            public void reportMove(Path baseDir, Path relPath, Path oldRelPath, I initiator) {
+                report(Update.move(baseDir, relPath, oldRelPath, initiator), moves);
+            }
+
+            @Override
+            public void reportError(Throwable error) {
+                errors.push(error);
+            }
+        };
+        this.viewReporter = new Reporter<I>() {
+            @Override
+            public void reportCreation(Path baseDir, Path relPath, I initiator) {
+                creations.push(Update.creation(baseDir, relPath, initiator));
+            }
+
+            @Override
+            public void reportDeletion(Path baseDir, Path relPath, I initiator) {
+                deletions.push(Update.deletion(baseDir, relPath, initiator));
+            }
+
+            @Override
+            public void reportModification(Path baseDir, Path relPath, I initiator) {
+                modifications.push(Update.modification(baseDir, relPath, initiator));
+            }
+
+            @Override
+            public void reportMove(Path baseDir, Path relPath, Path oldRelPath, I initiator) {
+                moves.push(Update.move(baseDir, relPath, oldRelPath, initiator));
+            }
+
+            @Override
+            public void reportError(Throwable error) {
+                errors.push(error);
+            }
+        };
+    }
+
+    @Override public EventStream<Update<I>> creations() { return creations; }
+    @Override public EventStream<Update<I>> deletions() { return deletions; }
+    @Override public EventStream<Update<I>> modifications() { return modifications; }
+    @Override public EventStream<Update<I>> moves() { return moves; }
+    @Override public EventStream<ChangeSet<I>> changes() { return changes; }
+    @Override public EventStream<Update<I>> updates(Path subtree) { return new SubtreeStream(subtree); }
+
+    public EventStream<Throwable> errors() { return errors; }
+
+    /**
+     * Returns the name index of this model, creating it on first use. The
+     * index is populated from the current content and from then on kept up
+     * to date by the reported creations, deletions and moves, once per
+     * change in the file-system.
+     */
+    NameIndex getNameIndex() {
+        if(nameIndex == null) {
+            NameIndex index = new NameIndex();
+            for(PathNode tree: getOutermostTrees()) {
+                index.addContent(tree);
+            }
+            nameIndex = index;
+        }
+        return nameIndex;
+    }
+
+    /**
+     * Sets the listener to notify of structural changes of all top-level
+     * directories, current and future.
+     */
+    void setListener(TreeListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Returns the entries of the top-level directories in the order the
+     * directories were added. The entry of a nested top-level directory may
+     * be a directory within the tree of an enclosing one.
+     */
+    List<DirEntry> getTopLevelDirs() {
+        List<DirEntry> entries = new ArrayList<>(topLevelList.size());
+        for(TopLevel dir: topLevelList) {
+            entries.add(dir.entry);
+        }
+        return entries;
+    }
+
+    @Override
+    public DirectorySnapshot snapshot() {
+        DirectorySnapshot.Node[] dirs = new DirectorySnapshot.Node[topLevelList.size()];
+        for(int i = 0; i < dirs.length; ++i) {
+            TopLevel dir = topLevelList.get(i);
+            DirectorySnapshot.Node node = dir.entry.getSnapshot();
+            dirs[i] = dir.isView() ? node.withName(dir.path) : node;
+        }
+        return new DirectorySnapshot(dirs);
+    }
+
+    @Override
+    public boolean contains(Path path) {
+        // nested top-level directories mirror the same part of the
+        // file-system, so it is enough to consult the deepest one
+        return resolve(path) != null;
+    }
+
+    public boolean containsPrefixOf(Path path) {
+        return topLevelDirs.containsPrefixOf(path);
+    }
+
+    /**
+     * Adds a top-level directory to the model. If the directory lies within
+     * the content of an existing top-level directory, it becomes a view onto
+     * that content instead of getting a tree of its own, and its existing
+     * content is reported as created relative to it.
+     *
+     * @return {@code true} if the directory is already covered by the
+     * content of another top-level directory, which means it need not be
+     * scanned or watched separately.
+     */
+    boolean addTopLevelDirectory(Path dir) {
+        if(topLevelDirs.get(dir) != null) {
+            return true;
+        }
+
+        TopLevel item = new TopLevel(dir);
+        DirEntry shared = sharedEntry(dir);
+        if(shared != null) {
+            item.tree = treeAbove(dir);
+            item.entry = shared;
+            ++viewCount;
+        } else {
+            TopLevelDir<I> tree = newTree(dir, reporter);
+            trees.put(dir, tree);
+            item.tree = tree;
+            item.entry = tree;
+        }
+        topLevelDirs.put(dir, item);
+        topLevelList.add(item);
+        listener.entryAdded(null, item.entry, topLevelList.size() - 1);
+
+        if(shared != null) {
+            reportCreations(dir, shared, null);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Removes a top-level directory from the model. Entries that are not
+     * also covered by another top-level directory are reported as deleted.
+     * Views onto the removed directory's tree are moved to another tree that
+     * covers them, or get a copy of their content.
+     *
+     * @return {@code false} if {@code dir} was not a top-level directory.
+     */
+    boolean removeTopLevelDirectory(Path dir) {
+        TopLevel item = topLevelDirs.remove(dir);
+        if(item == null) {
+            return false;
+        }
+
+        int index = topLevelList.indexOf(item);
+        topLevelList.remove(index);
+        listener.entryRemoved(null, item.entry, index);
+        if(item.isView()) {
+            --viewCount;
+            return true;
+        }
+
+        trees.remove(dir);
+        for(TopLevel view: viewsOf(item.tree)) {
+            relocate(view);
+        }
+        if(!topLevelDirs.containsPrefixOf(dir)) {
+            item.tree.reportContentDeletion(d -> topLevelDirs.get(d) != null, defaultInitiator);
+        }
+        return true;
+    }
+
+    /**
+     * Returns the content of every top-level directory that is not nested
+     * in another top-level directory.
+     */
+    List<PathNode> getOutermostTrees() {
+        List<PathNode> outermost = new ArrayList<>();
+        for(TopLevel item: topLevelList) {
+            Path parent = item.path.getParent();
+            if(parent == null || !topLevelDirs.containsPrefixOf(parent)) {
+                outermost.add(item.entry.toPathNode(item.path));
+            }
+        }
+        return outermost;
+    }
+
+    /**
+     * Replaces the path filter. Items rejected by the new filter are removed
+     * from the model and reported as deleted. Entries that the new filter
+     * accepts but the old one rejected are not added here; they have to be
+     * found by listing {@link #getDirsWithExclusions()}. Views that the new
+     * filter excludes from their trees get a copy of their content first.
+     *
+     * @return the paths of the removed directories.
+     */
+    List<Path> setPathFilter(PathFilter filter) {
+        this.filter = filter;
+        for(TopLevel view: outermostFirst(views(null))) {
+            if(!isIncluded(view.tree.getPath(), view.path, true)) {
+                if(treeAbove(view.path) == view.tree) {
+                    ownTree(view, view.entry.toPathNode(view.path));
+                } else {
+                    // an enclosing view got a tree of its own just before
+                    relocate(view);
+                }
+            }
+        }
+
+        List<Path> removedDirs = new ArrayList<>();
+        for(TopLevel item: new ArrayList<>(topLevelList)) {
+            if(!item.isView()) {
+                item.tree.removeExcluded(filter, defaultInitiator, removedDirs::add);
+            }
+        }
+        detachRemovedViews();
+        return removedDirs;
+    }
+
+    PathFilter getPathFilter() {
+        return filter;
+    }
+
+    /**
+     * Returns whether the given path passes the path filter within at least
+     * one of the top-level directories it belongs to.
+     */
+    boolean isIncluded(Path path, boolean isDirectory) {
+        boolean[] included = { false };
+        trees.forEachPrefixOf(path, root -> {
+            included[0] |= isIncluded(root.getPath(), path, isDirectory);
+        });
+        return included[0];
+    }
+
+    /**
+     * Checks the given path and its ancestors below {@code base} against
+     * the path filter. Top-level directories are never filtered out.
+     */
+    private boolean isIncluded(Path base, Path path, boolean isDirectory) {
+        if(filter == PathFilter.ACCEPT_ALL) {
+            return true;
+        }
+        for(Path p = path; p != null && !p.equals(base); p = p.getParent()) {
+            if(!filter.accept(p, p == path ? isDirectory : true)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the directories from which the path filter left out some
+     * entries.
+     */
+    Set<Path> getDirsWithExclusions() {
+        Set<Path> dirs = new LinkedHashSet<>();
+        for(TopLevelDir<I> item: trees()) {
+            item.forEachDirWithExclusions(dirs::add);
+        }
+        return dirs;
+    }
+
+    /**
+     * Records whether the path filter left out some entries of the given
+     * directory.
+     */
+    void setHasExclusions(Path dir, boolean hasExclusions) {
+        trees.forEachPrefixOf(dir, root -> {
+            PathEntry entry = root.resolve(root.getPath().relativize(dir));
+            if(entry != null && entry.isDirectory()) {
+                entry.asDirEntry().setHasExclusions(hasExclusions);
+            }
+        });
+    }
+
+    /**
+     * Returns the names of the entries of the given directory in the model.
+     */
+    Set<Path> getChildNames(Path dir) {
+        Set<Path> names = new HashSet<>();
+        PathEntry entry = resolve(dir);
+        if(entry != null && entry.isDirectory()) {
+            for(PathEntry child: entry.asDirEntry().getChildren()) {
+                names.add(child.getName());
+            }
+        }
+        return names;
+    }
+
+    void updateModificationTime(Path path, FileTime lastModified, I initiator) {
+        updateModificationTime(path, lastModified, null, initiator);
+    }
+
+    /**
+     * @param attributes newly captured attributes, or {@code null} if not
+     * captured.
+     */
+    void updateModificationTime(Path path, FileTime lastModified, EntryAttributes attributes, I initiator) {
+        assertHasTopLevelAncestor(path);
+        trees.forEachPrefixOf(path, root -> {
+            if(isIncluded(root.getPath(), path, false)) {
+                Path relPath = root.getPath().relativize(path);
+                root.updateModificationTime(relPath, lastModified, attributes, initiator);
+            }
+        });
+        detachRemovedViews();
+    }
+
+    @Override
+    public EntryAttributes getAttributes(Path path) {
+        PathEntry entry = resolve(path);
+        return entry != null ? entry.getAttributes() : null;
+    }
+
+    /**
+     * Returns whether the model has a file at the given path that was last
+     * modified before the given time.
+     */
+    boolean isOutdated(Path path, FileTime lastModified) {
+        PathEntry entry = resolve(path);
+        return entry != null && !entry.isDirectory()
+                && lastModified.compareTo(entry.asFileEntry().getLastModified()) > 0;
+    }
+
+    /**
+     * Returns the modification time of the file at the given path if no
+     * fingerprint of its content is known, or {@code null} if there is a
+     * fingerprint or no such file in the model.
+     */
+    FileTime getUnhashedModificationTime(Path path) {
+        PathEntry entry = resolve(path);
+        if(entry == null || entry.isDirectory() || entry.asFileEntry().hasContentHash()) {
+            return null;
+        }
+        return entry.asFileEntry().getLastModified();
+    }
+
+    /**
+     * Records a baseline fingerprint of the file at the given path, computed
+     * for the given modification time, without reporting anything.
+     */
+    void setContentHash(Path path, FileTime lastModified, long contentHash) {
+        trees.forEachPrefixOf(path, root -> {
+            PathEntry entry = root.resolve(root.getPath().relativize(path));
+            if(entry != null && !entry.isDirectory()) {
+                entry.asFileEntry().setContentHash(lastModified, contentHash);
+            }
+        });
+    }
+
+    /**
+     * Applies a modification of an existing file, suppressing the update if
+     * the content fingerprint did not change. Ignored if the file is no
+     * longer in the model.
+     *
+     * @param contentHash fingerprint of the new content, or {@code null} if
+     * not known.
+     */
+    void updateContent(Path path, FileTime lastModified, Long contentHash, EntryAttributes attributes, I initiator) {
+        trees.forEachPrefixOf(path, root -> {
+            Path relPath = root.getPath().relativize(path);
+            root.updateContent(relPath, lastModified, contentHash, attributes, initiator);
+        });
+    }
+
+    void addDirectory(Path path, I initiator) {
+        trees.forEachPrefixOf(path, root -> {
+            if(isIncluded(root.getPath(), path, true)) {
+                Path relPath = root.getPath().relativize(path);
+                root.addDirectory(relPath, initiator);
+            }
+        });
+        detachRemovedViews();
+    }
+
+    void addFile(Path path, I initiator, FileTime lastModified) {
+        addFile(path, initiator, lastModified, null);
+    }
+
+    void addFile(Path path, I initiator, FileTime lastModified, EntryAttributes attributes) {
+        trees.forEachPrefixOf(path, root -> {
+            if(isIncluded(root.getPath(), path, false)) {
+                Path relPath = root.getPath().relativize(path);
+                root.addFile(relPath, lastModified, attributes, initiator);
+            }
+        });
+        detachRemovedViews();
+    }
+
+    void delete(Path path, I initiator) {
+        assertHasTopLevelAncestor(path);
+        trees.forEachPrefixOf(path, root -> {
+            Path relPath = root.getPath().relativize(path);
+            root.remove(relPath, initiator);
+        });
+        detachRemovedViews();
+    }
+
+    /**
+     * Moves the entry at {@code from} to {@code to}, preserving its entries.
+     *
+     * @return {@code false} if the move could not be applied as such, e.g.
+     * because it crosses top-level directories. The caller should then
+     * treat it as a deletion followed by a creation.
+     */
+    boolean move(Path from, Path to, I initiator) {
+        if(!staysWithin(from, to)) {
+            return false;
+        }
+
+        List<TopLevelDir<I>> roots = new ArrayList<>();
+        trees.forEachPrefixOf(from, roots::add);
+        boolean moved = true;
+        for(TopLevelDir<I> root: roots) {
+            Path base = root.getPath();
+            moved &= root.move(base.relativize(from), base.relativize(to), initiator);
+        }
+        return moved;
+    }
+
+    /**
+     * Returns whether moving the entry at {@code from} to {@code to} can be
+     * applied by {@link #move(Path, Path, Object)}, as far as can be told
+     * without trying.
+     */
+    boolean isMoveWithin(Path from, Path to) {
+        Path toParent = to.getParent();
+        if(!contains(from) || toParent == null || !contains(toParent)) {
+            return false;
+        }
+        return staysWithin(from, to);
+    }
+
+    /**
+     * Returns whether {@code from} and {@code to} belong to the same
+     * top-level directories, and no top-level directory lies within
+     * {@code from}. Moving a view along with its entry is not supported.
+     */
+    private boolean staysWithin(Path from, Path to) {
+        List<TopLevel> roots = new ArrayList<>();
+        topLevelDirs.forEachPrefixOf(from, roots::add);
+        List<TopLevel> targetRoots = new ArrayList<>();
+        topLevelDirs.forEachPrefixOf(to, targetRoots::add);
+        if(roots.isEmpty() || !roots.equals(targetRoots)) {
+            return false;
+        }
+        boolean[] nested = { false };
+        topLevelDirs.forEachUnder(from, dir -> nested[0] = true);
+        return !nested[0];
+    }
+
+    /**
+     * Returns the file key of the directory at the given path, as of the
+     * last scan, or {@code null} if the path is not a directory in the model
+     * or its file key is not known.
+     */
+    Object getDirectoryKey(Path path) {
+        PathEntry entry = resolve(path);
+        return entry != null && entry.isDirectory() ? entry.asDirEntry().getFileKey() : null;
+    }
+
+    /**
+     * Returns the modification time of the directory at the given path, as
+     * of the last scan, or {@code null} if the path is not a directory in the
+     * model or was not scanned.
+     */
+    FileTime getDirectoryModificationTime(Path path) {
+        PathEntry entry = resolve(path);
+        return entry != null && entry.isDirectory() ? entry.asDirEntry().getLastModified() : null;
+    }
+
+    /**
+     * Returns the model's content at the given path, or {@code null} if the
+     * path is not in the model.
+     */
+    PathNode getTree(Path path) {
+        PathEntry entry = resolve(path);
+        return entry != null ? entry.toPathNode(path) : null;
+    }
+
+    private PathEntry resolve(Path path) {
+        TopLevelDir<I> root = trees.longestPrefixOf(path);
+        return root != null ? root.resolve(root.getPath().relativize(path)) : null;
+    }
+
+    void sync(PathNode tree) {
+        sync(tree, defaultInitiator);
+    }
+
+    /**
+     * Brings the model's content at the path of the given tree in line with
+     * the tree, attributing all resulting changes to the given initiator.
+     */
+    void sync(PathNode tree, I initiator) {
+        Path path = tree.getPath();
+        if(changes.isObservingInputs()) {
+            startTurn();
+            pendingReplacedSubtrees.add(path);
+        }
+        // enclosing trees come first, so that a nested tree they now cover
+        // is skipped and becomes a view in shareNested(path)
+        trees.forEachPrefixOf(path, root -> {
+            if(isIncluded(root.getPath(), path, tree.isDirectory()) && sharedEntry(root.getPath()) == null) {
+                root.sync(tree, initiator);
+            }
+        });
+
+        // top-level directories nested strictly inside the synced tree
+        trees.forEachUnder(path, root -> {
+            if(!root.getPath().equals(path) && sharedEntry(root.getPath()) == null) {
+                PathNode subtree = tree.find(path.relativize(root.getPath()));
+                if(subtree != null) {
+                    root.sync(subtree, initiator);
+                }
+            }
+        });
+        detachRemovedViews();
+        shareNested(path);
+    }
+
+    /**
+     * Emits the update on the subtree streams that contain it.
+     */
+    private void dispatch(Update<I> update) {
+        if(subtreeStreams.isEmpty()) {
+            return;
+        }
+        Path path = update.getPath();
+        subtreeStreams.forEachPrefixOf(path, streams -> {
+            for(SubtreeStream stream: streams) {
+                stream.emit(update);
+            }
+        });
+        if(update.getType() == UpdateType.MOVE) {
+            subtreeStreams.forEachPrefixOf(update.getOldPath(), streams -> {
+                for(SubtreeStream stream: streams) {
+                    if(!path.startsWith(stream.subtree)) {
+                        stream.emit(update);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Stream of updates within a subtree. It is registered in
+     * {@link #subtreeStreams} only while it has observers.
+     */
+    private final class SubtreeStream extends EventStreamBase<Update<I>> {
+        final Path subtree;
+
+        SubtreeStream(Path subtree) {
+            this.subtree = subtree;
+        }
+
+        @Override
+        protected Subscription observeInputs() {
+            List<SubtreeStream> streams = subtreeStreams.get(subtree);
+            if(streams == null) {
+                // copy-on-write, since observers may unsubscribe during emission
+                streams = new CopyOnWriteArrayList<>();
+                subtreeStreams.put(subtree, streams);
+            }
+            streams.add(this);
+            return () -> {
+                List<SubtreeStream> registered = subtreeStreams.get(subtree);
+                if(registered != null) {
+                    registered.remove(this);
+                    if(registered.isEmpty()) {
+                        subtreeStreams.remove(subtree);
+                    }
+                }
+            };
+        }
+    }
+
+    private void record(Update<I> update) {
+        if(changes.isObservingInputs()) {
+            startTurn();
+            pendingUpdates.add(update);
+        }
+    }
+
+    /**
+     * Starts collecting the updates of the current processing turn, unless
+     * already started. The collected updates are emitted by a task that the
+     * client thread executes after the current one.
+     */
+    private void startTurn() {
+        if(pendingUpdates == null) {
+            pendingUpdates = new ArrayList<>();
+            pendingReplacedSubtrees = new ArrayList<>();
+            clientThreadExecutor.execute(this::emitChanges);
+        }
+    }
+
+    private void emitChanges() {
+        ChangeSet<I> changeSet = ChangeSet.of(pendingUpdates, pendingReplacedSubtrees);
+        pendingUpdates = null;
+        pendingReplacedSubtrees = null;
+        changes.push(changeSet);
+    }
+
+    /**
+     * Publishes an update reported by a tree, then the same update relative
+     * to every view onto that tree that contains it, so that each top-level
+     * directory reports the changes within it. Subtree streams, change sets
+     * and the name index are keyed by path and get the update only once.
+     */
+    private void report(Update<I> update, EventSource<Update<I>> stream) {
+        stream.push(update);
+        dispatch(update);
+        record(update);
+        index(update);
+        if(viewCount == 0) {
+            return;
+        }
+
+        Path path = update.getPath();
+        Path oldPath = update.getType() == UpdateType.MOVE ? update.getOldPath() : null;
+        List<TopLevel> views = new ArrayList<>();
+        topLevelDirs.forEachPrefixOf(path, dir -> {
+            if(dir.isView() && !dir.path.equals(path)
+                    && dir.tree.getPath().equals(update.getBaseDir())
+                    && (oldPath == null || oldPath.startsWith(dir.path) && !oldPath.equals(dir.path))) {
+                views.add(dir);
+            }
+        });
+        for(TopLevel view: views) {
+            stream.push(relativeTo(view.path, update));
+        }
+    }
+
+    private static <I> Update<I> relativeTo(Path dir, Update<I> update) {
+        Path relPath = dir.relativize(update.getPath());
+        switch(update.getType()) {
+            case CREATION: return Update.creation(dir, relPath, update.getInitiator());
+            case DELETION: return Update.deletion(dir, relPath, update.getInitiator());
+            case MODIFICATION: return Update.modification(dir, relPath, update.getInitiator());
+            case MOVE: return Update.move(dir, relPath, dir.relativize(update.getOldPath()), update.getInitiator());
+            default: throw new AssertionError(update.getType());
+        }
+    }
+
+    private void index(Update<I> update) {
+        if(nameIndex == null) {
+            return;
+        }
+        switch(update.getType()) {
+            case CREATION:
+                nameIndex.add(update.getPath());
+                break;
+            case DELETION:
+                nameIndex.remove(update.getPath());
+                break;
+            case MOVE:
+                PathNode tree = getTree(update.getPath());
+                if(tree != null) {
+                    nameIndex.move(update.getOldPath(), tree);
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Reports the content of a directory as created relative to
+     * {@code baseDir}, on {@link #creations()} only, since the entries
+     * themselves are not new.
+     */
+    private void reportCreations(Path baseDir, DirEntry dir, Path relDir) {
+        for(PathEntry child: dir.getChildren()) {
+            Path relPath = relDir == null ? child.getName() : relDir.resolve(child.getName());
+            creations.push(Update.creation(baseDir, relPath, defaultInitiator));
+            if(child.isDirectory()) {
+                reportCreations(baseDir, child.asDirEntry(), relPath);
+            }
+        }
+    }
+
+    /**
+     * A top-level directory. Unless it lies within the content of another
+     * top-level directory, it owns a tree. Otherwise it is a view onto the
+     * directory's entry in the enclosing tree, so that its content is
+     * stored, scanned and watched only once.
+     */
+    private final class TopLevel {
+        final Path path;
+
+        /** The tree that holds the content of this directory. */
+        TopLevelDir<I> tree;
+
+        /** The root of {@link #tree}, or a directory within it for a view. */
+        DirEntry entry;
+
+        TopLevel(Path path) {
+            this.path = path;
+        }
+
+        boolean isView() {
+            return entry != tree;
+        }
+
+        /**
+         * Whether {@link #entry} is still part of {@link #tree}.
+         */
+        boolean isAttached() {
+            PathEntry e = entry;
+            while(e.getParent() != null) {
+                e = e.getParent();
+            }
+            return e == tree;
+        }
+    }
+
+    private TopLevelDir<I> newTree(Path dir, Reporter<I> reporter) {
+        TopLevelDir<I> tree = new TopLevelDir<>(dir, reporter);
+        tree.setListener(new TreeListener() {
+            @Override
+            public void entryAdded(DirEntry parent, PathEntry entry, int index) {
+                listener.entryAdded(parent, entry, index);
+            }
+
+            @Override
+            public void entryRemoved(DirEntry parent, PathEntry entry, int index) {
+                listener.entryRemoved(parent, entry, index);
+                if(viewCount > 0 && entry.isDirectory()) {
+                    // detached once the current operation is done
+                    topLevelDirs.forEachUnder(parent.getPath().resolve(entry.getName()), dir -> {
+                        if(dir.isView()) {
+                            if(removedViews == null) {
+                                removedViews = new ArrayList<>();
+                            }
+                            removedViews.add(dir);
+                        }
+                    });
+                }
+            }
+        });
+        return tree;
+    }
+
+    private List<TopLevelDir<I>> trees() {
+        List<TopLevelDir<I>> owned = new ArrayList<>(topLevelList.size());
+        for(TopLevel dir: topLevelList) {
+            if(!dir.isView()) {
+                owned.add(dir.tree);
+            }
+        }
+        return owned;
+    }
+
+    /**
+     * Returns the views onto the given tree, or onto any tree if
+     * {@code tree} is {@code null}.
+     */
+    private List<TopLevel> views(TopLevelDir<I> tree) {
+        List<TopLevel> views = new ArrayList<>();
+        for(TopLevel dir: topLevelList) {
+            if(dir.isView() && (tree == null || dir.tree == tree)) {
+                views.add(dir);
+            }
+        }
+        return views;
+    }
+
+    private List<TopLevel> viewsOf(TopLevelDir<I> tree) {
+        return outermostFirst(views(tree));
+    }
+
+    private List<TopLevel> outermostFirst(List<TopLevel> dirs) {
+        dirs.sort(Comparator.comparingInt(dir -> dir.path.getNameCount()));
+        return dirs;
+    }
+
+    /**
+     * Returns the tree of the closest top-level directory strictly above
+     * {@code dir}, or {@code null}.
+     */
+    private TopLevelDir<I> treeAbove(Path dir) {
+        Path parent = dir.getParent();
+        return parent != null ? trees.longestPrefixOf(parent) : null;
+    }
+
+    /**
+     * Returns the entry of {@code dir} in the tree returned by
+     * {@link #treeAbove(Path)}, if that is a directory, or {@code null}.
+     */
+    private DirEntry sharedEntry(Path dir) {
+        TopLevelDir<I> tree = treeAbove(dir);
+        PathEntry entry = tree != null ? tree.resolve(tree.getPath().relativize(dir)) : null;
+        return entry != null && entry.isDirectory() ? entry.asDirEntry() : null;
+    }
+
+    /**
+     * Points the given top-level directory at another entry, replacing its
+     * item in the listener.
+     */
+    private void rebind(TopLevel dir, TopLevelDir<I> tree, DirEntry entry) {
+        boolean wasView = dir.isView();
+        int index = topLevelList.indexOf(dir);
+        listener.entryRemoved(null, dir.entry, index);
+        dir.tree = tree;
+        dir.entry = entry;
+        listener.entryAdded(null, entry, index);
+        if(wasView != dir.isView()) {
+            viewCount += wasView ? -1 : 1;
+        }
+    }
+
+    /**
+     * Gives a view a tree of its own, populated from the given content
+     * without reporting anything.
+     *
+     * @param content the content, or {@code null} for an empty tree.
+     */
+    private void ownTree(TopLevel view, PathNode content) {
+        TopLevelDir<I> tree = newTree(view.path, Reporter.silent());
+        if(content != null) {
+            tree.sync(content, defaultInitiator);
+        }
+        tree.setReporter(reporter);
+        trees.put(view.path, tree);
+        rebind(view, tree, tree);
+    }
+
+    /**
+     * Moves a view whose tree is going away onto the tree that now encloses
+     * it, or gives it a copy of its content. A view whose entry was removed
+     * gets an empty tree.
+     */
+    private void relocate(TopLevel view) {
+        DirEntry shared = sharedEntry(view.path);
+        if(shared != null) {
+            rebind(view, treeAbove(view.path), shared);
+        } else {
+            ownTree(view, view.isAttached() ? view.entry.toPathNode(view.path) : null);
+        }
+    }
+
+    /**
+     * Gives each view whose entry was removed during the last operation an
+     * empty tree of its own, since its directory no longer exists in the
+     * enclosing tree.
+     */
+    private void detachRemovedViews() {
+        if(removedViews == null) {
+            return;
+        }
+        List<TopLevel> views = outermostFirst(removedViews);
+        removedViews = null;
+        for(TopLevel view: views) {
+            if(view.isView() && topLevelDirs.get(view.path) == view && !view.isAttached()) {
+                ownTree(view, null);
+            }
+        }
+    }
+
+    /**
+     * Turns the top-level directories within (or equal to) {@code path}
+     * that own a tree, but are now covered by an enclosing tree, into views
+     * onto it. The differences between their own trees and the shared
+     * content are reported relative to them only, since the enclosing tree
+     * has reported the same changes already.
+     */
+    private void shareNested(Path path) {
+        if(topLevelList.size() < 2) {
+            return;
+        }
+        List<TopLevel> owners = new ArrayList<>();
+        topLevelDirs.forEachUnder(path, dir -> {
+            if(!dir.isView() && treeAbove(dir.path) != null) {
+                owners.add(dir);
+            }
+        });
+        for(TopLevel dir: outermostFirst(owners)) {
+            DirEntry shared = sharedEntry(dir.path);
+            if(shared != null) {
+                TopLevelDir<I> own = dir.tree;
+                own.setReporter(viewReporter);
+                own.sync(shared.toPathNode(dir.path), defaultInitiator);
+                trees.remove(dir.path);
+                rebind(dir, treeAbove(dir.path), shared);
+                for(TopLevel view: viewsOf(own)) {
+                    relocate(view);
+                }
+            }
+        }
+        detachRemovedViews();
+    }
+
+    private void assertHasTopLevelAncestor(Path path) {
+        assert topLevelDirs.containsPrefixOf(path) : "path resolved against a dir that was reported to be in the model does not have a top-level ancestor in the model";
+    }
+}
@@ -0,0 +1,391 @@
+package org.fxmisc.livedirs;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Index of the file names in a directory tree, kept up to date with the
+ * tree's creations, deletions and moves.
+ *
+ * <p>The index is updated on the client thread, but can be queried from
+ * any thread without touching the entries of the tree. Queries are weakly
+ * consistent: a query that runs while the tree is being updated may or may
+ * not see the update.
+ *
+ * <p>All queries are case-insensitive and match file names only, not the
+ * names of parent directories.
+ */
+public final class NameIndex {
+
+    private static final class Entry {
+        /** Characters that occur in the name, see {@link #charMask(String)}. */
+        final long charMask;
+
+        /**
+         * Positions in the lower-case name at which words of the original
+         * spelling start, ascending. See {@link #wordStarts(String)}.
+         */
+        final int[] wordStarts;
+
+        final Set<Path> paths = ConcurrentHashMap.newKeySet();
+
+        Entry(long charMask, int[] wordStarts) {
+            this.charMask = charMask;
+            this.wordStarts = wordStarts;
+        }
+
+        boolean isWordStart(int i) {
+            return Arrays.binarySearch(wordStarts, i) >= 0;
+        }
+    }
+
+    /** Entries by lower-case file name. */
+    private final ConcurrentSkipListMap<String, Entry> byName = new ConcurrentSkipListMap<>();
+
+    /** Lower-case file names by the trigrams they contain. */
+    private final ConcurrentHashMap<Long, Set<String>> trigrams = new ConcurrentHashMap<>();
+
+    /** Lower-case file names by the first characters of their words. */
+    private final ConcurrentHashMap<Character, Set<String>> wordInitials = new ConcurrentHashMap<>();
+
+    private volatile int size = 0;
+
+    NameIndex() {}
+
+    /**
+     * Returns the number of indexed paths.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns paths whose file name starts with the given prefix, in the
+     * order of their file names.
+     *
+     * @param limit maximum number of returned paths; if not positive, no
+     * paths are returned.
+     */
+    public List<Path> findByPrefix(String prefix, int limit) {
+        String key = normalize(prefix);
+        ConcurrentNavigableMap<String, Entry> range = byName.subMap(key, true, key + Character.MAX_VALUE, true);
+        List<Path> res = new ArrayList<>();
+        for(Entry entry: range.values()) {
+            if(!collect(entry, res, limit)) {
+                break;
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Returns paths whose file name contains the given text.
+     *
+     * @param limit maximum number of returned paths; if not positive, no
+     * paths are returned.
+     */
+    public List<Path> findBySubstring(String text, int limit) {
+        String key = normalize(text);
+        List<Path> res = new ArrayList<>();
+        if(key.length() < 3) {
+            for(Map.Entry<String, Entry> e: byName.entrySet()) {
+                if(e.getKey().contains(key) && !collect(e.getValue(), res, limit)) {
+                    break;
+                }
+            }
+        } else {
+            // only names that contain the rarest trigram of the text qualify
+            Set<String> candidates = null;
+            for(int i = 0; i + 3 <= key.length(); ++i) {
+                Set<String> names = trigrams.get(trigram(key, i));
+                if(names == null) {
+                    return res;
+                } else if(candidates == null || names.size() < candidates.size()) {
+                    candidates = names;
+                }
+            }
+            for(String name: candidates) {
+                if(name.contains(key)) {
+                    Entry entry = byName.get(name);
+                    if(entry != null && !collect(entry, res, limit)) {
+                        break;
+                    }
+                }
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Returns paths whose file name contains the characters of the given
+     * pattern in order, not necessarily adjacent, best matches first. The
+     * first character of the pattern has to match at the start of a word
+     * (the start of the name, after a separator such as {@code '.'},
+     * {@code '_'} or {@code '-'}, or at a camel-case hump), so only names
+     * with a word starting with that character are examined. Matches of
+     * consecutive characters and further matches at the start of words rank
+     * higher; among equal matches, shorter names rank higher.
+     *
+     * @param limit maximum number of returned paths; if not positive, no
+     * paths are returned.
+     */
+    public List<Path> findFuzzy(String pattern, int limit) {
+        if(limit <= 0) {
+            return new ArrayList<>();
+        }
+        String key = normalize(pattern);
+        long mask = charMask(key);
+        Set<String> candidates = key.isEmpty() ? byName.keySet() : wordInitials.get(key.charAt(0));
+        if(candidates == null) {
+            return new ArrayList<>();
+        }
+
+        // keep the best matching names in a bounded heap, worst on top;
+        // every name has at least one path, so limit names are enough
+        Comparator<Match> order = Comparator.<Match>comparingInt(m -> m.score)
+                .thenComparing(Comparator.<Match>comparingInt(m -> m.name.length()).reversed());
+        PriorityQueue<Match> best = new PriorityQueue<>(order);
+        for(String name: candidates) {
+            Entry entry = byName.get(name);
+            if(entry == null || (entry.charMask & mask) != mask) {
+                continue;
+            }
+            int score = fuzzyScore(name, key, entry);
+            if(score < 0) {
+                continue;
+            }
+            Match m = new Match(name, entry, score);
+            if(best.size() < limit) {
+                best.add(m);
+            } else if(order.compare(m, best.peek()) > 0) {
+                best.poll();
+                best.add(m);
+            }
+        }
+
+        List<Match> matches = new ArrayList<>(best);
+        Collections.sort(matches, order.reversed());
+        List<Path> res = new ArrayList<>();
+        for(Match m: matches) {
+            if(!collect(m.entry, res, limit)) {
+                break;
+            }
+        }
+        return res;
+    }
+
+    void add(Path path) {
+        Path fileName = path.getFileName();
+        if(fileName == null) {
+            return;
+        }
+        String spelled = fileName.toString();
+        String key = normalize(spelled);
+        Entry entry = byName.get(key);
+        if(entry == null) {
+            entry = new Entry(charMask(key), wordStarts(spelled));
+            byName.put(key, entry);
+            for(int i = 0; i + 3 <= key.length(); ++i) {
+                trigrams.computeIfAbsent(trigram(key, i), t -> ConcurrentHashMap.newKeySet()).add(key);
+            }
+            for(int i: entry.wordStarts) {
+                wordInitials.computeIfAbsent(key.charAt(i), c -> ConcurrentHashMap.newKeySet()).add(key);
+            }
+        }
+        if(entry.paths.add(path)) {
+            ++size;
+        }
+    }
+
+    void remove(Path path) {
+        Path fileName = path.getFileName();
+        if(fileName == null) {
+            return;
+        }
+        String key = normalize(fileName.toString());
+        Entry entry = byName.get(key);
+        if(entry == null || !entry.paths.remove(path)) {
+            return;
+        }
+        --size;
+        if(entry.paths.isEmpty()) {
+            byName.remove(key);
+            for(int i = 0; i + 3 <= key.length(); ++i) {
+                Long t = trigram(key, i);
+                Set<String> names = trigrams.get(t);
+                if(names != null) {
+                    names.remove(key);
+                    if(names.isEmpty()) {
+                        trigrams.remove(t);
+                    }
+                }
+            }
+            for(int i: entry.wordStarts) {
+                Character c = key.charAt(i);
+                Set<String> names = wordInitials.get(c);
+                if(names != null) {
+                    names.remove(key);
+                    if(names.isEmpty()) {
+                        wordInitials.remove(c);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds all entries in the given tree, except for its root.
+     */
+    void addContent(PathNode tree) {
+        for(PathNode child: tree.getChildren()) {
+            add(child.getPath());
+            addContent(child);
+        }
+    }
+
+    /**
+     * Re-indexes a subtree that was moved from {@code from}, given its
+     * content at the new location.
+     */
+    void move(Path from, PathNode tree) {
+        Path to = tree.getPath();
+        remove(from);
+        add(to);
+        moveContent(from, to, tree);
+    }
+
+    private void moveContent(Path from, Path to, PathNode tree) {
+        for(PathNode child: tree.getChildren()) {
+            Path relPath = to.relativize(child.getPath());
+            remove(from.resolve(relPath));
+            add(child.getPath());
+            moveContent(from, to, child);
+        }
+    }
+
+    private static boolean collect(Entry entry, List<Path> res, int limit) {
+        for(Path path: entry.paths) {
+            if(res.size() >= limit) {
+                return false;
+            }
+            res.add(path);
+        }
+        return res.size() < limit;
+    }
+
+    private static final class Match {
+        final String name;
+        final Entry entry;
+        final int score;
+
+        Match(String name, Entry entry, int score) {
+            this.name = name;
+            this.entry = entry;
+            this.score = score;
+        }
+    }
+
+    /**
+     * Scores a subsequence match of {@code pattern} in {@code name} whose
+     * first character is matched at the start of a word, or returns -1 if
+     * there is none.
+     */
+    private static int fuzzyScore(String name, String pattern, Entry entry) {
+        if(pattern.isEmpty()) {
+            return 0;
+        }
+        // matching from the first qualifying word start finds a match if
+        // any later one does
+        int start = -1;
+        for(int i: entry.wordStarts) {
+            if(name.charAt(i) == pattern.charAt(0)) {
+                start = i;
+                break;
+            }
+        }
+        if(start < 0) {
+            return -1;
+        }
+
+        int score = 0;
+        int prev = -2;
+        int j = 0;
+        for(int i = start; i < name.length() && j < pattern.length(); ++i) {
+            if(name.charAt(i) == pattern.charAt(j)) {
+                score += 1;
+                if(i == prev + 1) {
+                    score += 4;
+                }
+                if(entry.isWordStart(i)) {
+                    score += 3;
+                }
+                prev = i;
+                ++j;
+            }
+        }
+        return j == pattern.length() ? score : -1;
+    }
+
+    /**
+     * Returns the positions at which words of the given file name start,
+     * as positions in {@code normalize(name)}. Word starts are told by the
+     * original spelling, because case folding loses camel-case humps, and
+     * mapped per code point, because it may change the length.
+     */
+    private static int[] wordStarts(String name) {
+        int[] starts = new int[name.length()];
+        int count = 0;
+        int pos = 0;
+        for(int i = 0; i < name.length(); ) {
+            int cp = name.codePointAt(i);
+            if(isWordStart(name, i)) {
+                starts[count++] = pos;
+            }
+            pos += cp < 0x80 ? 1 : normalize(new String(Character.toChars(cp))).length();
+            i += Character.charCount(cp);
+        }
+        return Arrays.copyOf(starts, count);
+    }
+
+    private static boolean isWordStart(String s, int i) {
+        if(i == 0) {
+            return true;
+        }
+        char c = s.charAt(i);
+        char p = s.charAt(i - 1);
+        return !Character.isLetterOrDigit(p)
+                || (Character.isUpperCase(c) && !Character.isUpperCase(p));
+    }
+
+    private static String normalize(String name) {
+        return name.toLowerCase(Locale.ROOT);
+    }
+
+    private static Long trigram(String s, int i) {
+        return ((long) s.charAt(i) << 32) | ((long) s.charAt(i + 1) << 16) | s.charAt(i + 2);
+    }
+
+    /**
+     * Returns a bit set of the characters in the given string, folded into
+     * 64 buckets, so that a name that lacks some character of a pattern can
+     * be rejected without scanning it.
+     */
+    private static long charMask(String s) {
+        long mask = 0;
+        for(int i = 0; i < s.length(); ++i) {
+            mask |= 1L << (s.charAt(i) & 63);
+        }
+        return mask;
+    }
+}
@@ -0,0 +1,214 @@
+package org.fxmisc.livedirs;
+
+import java.lang.ref.WeakReference;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Entry of a directory tree in a {@link LiveDirsTree}. Entries are plain
+ * objects, independent of any UI toolkit; a view such as the
+ * {@link javafx.scene.control.TreeItem}s of a {@link LiveDirsModel} mirrors
+ * them by means of a {@link TreeListener}.
+ */
+abstract class PathEntry {
+
+    /**
+     * Canonical instances of file names, so that equally named entries
+     * (think "src", "main", "index.html") in different directories share
+     * a single {@link Path} object.
+     */
+    private static final Map<Path, WeakReference<Path>> NAMES = new WeakHashMap<>();
+
+    static Path intern(Path name) {
+        synchronized(NAMES) {
+            WeakReference<Path> ref = NAMES.get(name);
+            Path canonical = ref != null ? ref.get() : null;
+            if(canonical == null) {
+                NAMES.put(name, new WeakReference<>(name));
+                canonical = name;
+            }
+            return canonical;
+        }
+    }
+
+    static boolean isEmpty(Path relPath) {
+        return relPath.getNameCount() == 1 && relPath.getName(0).toString().isEmpty();
+    }
+
+    /**
+     * File name of this entry. For top-level directories, this is the
+     * absolute path of the directory.
+     */
+    private Path name;
+
+    private DirEntry parent = null;
+
+    /**
+     * Absolute path of this entry, computed from the parent chain the first
+     * time it is requested. Only cached for directories, since those are
+     * what descendants resolve against; caching it for every file would
+     * take back much of the memory saved by storing names only.
+     */
+    private Path path = null;
+
+    /**
+     * Immutable snapshot of the subtree rooted at this entry, or
+     * {@code null} if the subtree changed since the snapshot was taken. If an
+     * entry has no snapshot, neither do its ancestors.
+     */
+    private DirectorySnapshot.Node snapshot = null;
+
+    /**
+     * Captured file attributes, or {@code null} if none were captured.
+     */
+    private EntryAttributes attributes = null;
+
+    /**
+     * Object that mirrors this entry in a view of the tree, or {@code null}.
+     */
+    Object peer = null;
+
+    protected PathEntry(Path name) {
+        this.name = name;
+    }
+
+    public final Path getName() { return name; }
+
+    public final DirEntry getParent() { return parent; }
+
+    /**
+     * Renames this entry. The entry must not be attached to a parent.
+     */
+    void setName(Path name) {
+        assert parent == null;
+        this.name = name;
+        invalidateSnapshot();
+    }
+
+    /**
+     * Discards the cached paths of this entry and its descendants, after the
+     * entry was moved.
+     */
+    void invalidatePaths() {
+        path = null;
+    }
+
+    public final EntryAttributes getAttributes() {
+        return attributes;
+    }
+
+    /**
+     * Replaces the captured attributes, unless {@code attributes} is
+     * {@code null}.
+     *
+     * @return {@code true} if attributes were captured before and differ
+     * from the new ones.
+     */
+    final boolean updateAttributes(EntryAttributes attributes) {
+        if(attributes == null || attributes.equals(this.attributes)) {
+            return false;
+        }
+        boolean changed = this.attributes != null;
+        this.attributes = attributes;
+        invalidateSnapshot();
+        return changed;
+    }
+
+    /**
+     * Returns an immutable snapshot of the subtree rooted at this entry.
+     * Snapshots of unchanged subtrees are reused.
+     */
+    final DirectorySnapshot.Node getSnapshot() {
+        if(snapshot == null) {
+            if(isDirectory()) {
+                List<PathEntry> children = asDirEntry().getChildren();
+                DirectorySnapshot.Node[] nodes = new DirectorySnapshot.Node[children.size()];
+                for(int i = 0; i < nodes.length; ++i) {
+                    nodes[i] = children.get(i).getSnapshot();
+                }
+                snapshot = DirectorySnapshot.Node.directory(name, asDirEntry().getLastModified(), attributes, nodes);
+            } else {
+                snapshot = DirectorySnapshot.Node.file(name, asFileEntry().getLastModified(), attributes);
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * Discards the snapshots of this entry and its ancestors, after this
+     * entry or its children changed.
+     */
+    final void invalidateSnapshot() {
+        for(PathEntry e = this; e != null && e.snapshot != null; e = e.parent) {
+            e.snapshot = null;
+        }
+    }
+
+    public final Path getPath() {
+        if(path != null) {
+            return path;
+        }
+
+        if(parent != null) {
+            Path p = parent.getPath().resolve(name);
+            if(isDirectory()) {
+                path = p;
+            }
+            return p;
+        } else {
+            // top-level directory (or an entry not attached yet)
+            return name;
+        }
+    }
+
+    public abstract boolean isDirectory();
+
+    /**
+     * Returns a snapshot of the subtree rooted at this entry, as if it was
+     * scanned from the file-system at the given path.
+     */
+    public PathNode toPathNode(Path path) {
+        if(isDirectory()) {
+            DirEntry dir = asDirEntry();
+            List<PathNode> children = new ArrayList<>(dir.getChildren().size());
+            for(PathEntry child: dir.getChildren()) {
+                children.add(child.toPathNode(path.resolve(child.getName())));
+            }
+            return PathNode.directory(path, dir.getLastModified(), dir.getFileKey(), children, dir.hasExclusions(), attributes);
+        } else {
+            return PathNode.file(path, asFileEntry().getLastModified(), attributes);
+        }
+    }
+
+    public FileEntry asFileEntry() { return (FileEntry) this; }
+    public DirEntry asDirEntry() { return (DirEntry) this; }
+
+    /**
+     * Returns the child entry with the given file name, or {@code null}.
+     */
+    public PathEntry getRelChild(Path name) {
+        return null;
+    }
+
+    protected PathEntry resolve(Path relPath) {
+        if(isEmpty(relPath)) {
+            return this;
+        }
+
+        PathEntry entry = this;
+        for(Path name: relPath) {
+            entry = entry.getRelChild(name);
+            if(entry == null) {
+                return null;
+            }
+        }
+        return entry;
+    }
+
+    final void setParent(DirEntry parent) {
+        this.parent = parent;
+    }
+}
@@ -0,0 +1,277 @@
+package org.fxmisc.livedirs;
+
+import static java.nio.charset.StandardCharsets.*;
+
+import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+/**
+ * Decides which file-system entries are included in the directory model.
+ * Excluded entries are neither scanned nor watched; in particular, the
+ * content of an excluded directory is never listed.
+ *
+ * <p>Filters are evaluated on the I/O thread as well as on the client
+ * thread, so they have to be thread-safe.
+ */
+@FunctionalInterface
+public interface PathFilter {
+
+    /**
+     * Filter that includes everything.
+     */
+    static final PathFilter ACCEPT_ALL = (path, isDirectory) -> true;
+
+    /**
+     * Returns {@code true} if the entry at the given absolute path should be
+     * included in the directory model.
+     */
+    boolean accept(Path path, boolean isDirectory);
+
+    /**
+     * Returns a filter that includes an entry only if both this and the
+     * other filter include it.
+     */
+    default PathFilter and(PathFilter that) {
+        return (path, isDirectory) -> this.accept(path, isDirectory) && that.accept(path, isDirectory);
+    }
+
+    /**
+     * Returns a filter that excludes the paths matching the given predicate.
+     */
+    static PathFilter excluding(Predicate<? super Path> excluded) {
+        return (path, isDirectory) -> !excluded.test(path);
+    }
+
+    /**
+     * Returns a filter that excludes entries matching any of the given glob
+     * patterns, with the syntax of {@link FileSystem#getPathMatcher(String)}.
+     * A pattern without a name separator, such as {@code "node_modules"} or
+     * {@code "*.class"}, is matched against the file name; other patterns,
+     * such as {@code "**}{@code /target"}, are matched against the absolute
+     * path.
+     */
+    static PathFilter excludingGlobs(String... globs) {
+        FileSystem fs = FileSystems.getDefault();
+        String separator = fs.getSeparator();
+        List<PathMatcher> nameMatchers = new ArrayList<>();
+        List<PathMatcher> pathMatchers = new ArrayList<>();
+        for(String glob: globs) {
+            PathMatcher matcher = fs.getPathMatcher("glob:" + glob);
+            if(glob.contains("/") || glob.contains(separator)) {
+                pathMatchers.add(matcher);
+            } else {
+                nameMatchers.add(matcher);
+            }
+        }
+
+        return (path, isDirectory) -> {
+            Path name = path.getFileName();
+            if(name != null) {
+                for(PathMatcher matcher: nameMatchers) {
+                    if(matcher.matches(name)) {
+                        return false;
+                    }
+                }
+            }
+            for(PathMatcher matcher: pathMatchers) {
+                if(matcher.matches(path)) {
+                    return false;
+                }
+            }
+            return true;
+        };
+    }
+
+    /**
+     * Returns a filter that excludes entries ignored by the rules in the
+     * given {@code .gitignore} file. The rules are interpreted relative to
+     * the directory containing the file. Ignore files in subdirectories are
+     * not consulted automatically; combine several filters with
+     * {@link #and(PathFilter)} for that.
+     */
+    static PathFilter gitIgnore(Path ignoreFile) throws IOException {
+        List<String> lines = Files.readAllLines(ignoreFile, UTF_8);
+        return gitIgnore(ignoreFile.toAbsolutePath().getParent(), lines);
+    }
+
+    /**
+     * Returns a filter that excludes entries ignored by the given
+     * {@code .gitignore} rules, interpreted relative to {@code baseDir}.
+     */
+    static PathFilter gitIgnore(Path baseDir, List<String> rules) {
+        return new GitIgnoreFilter(baseDir, rules);
+    }
+}
+
+/**
+ * Filter following the {@code .gitignore} pattern format: blank lines and
+ * lines starting with {@code #} are ignored, {@code !} negates a pattern,
+ * a trailing {@code /} matches only directories, a pattern containing a
+ * {@code /} (other than a trailing one) is anchored to the base directory,
+ * {@code *}, {@code ?} and {@code [...]} do not match {@code /}, and
+ * {@code **} matches across directories. The last matching rule wins.
+ */
+class GitIgnoreFilter implements PathFilter {
+
+    private static final class Rule {
+        final Pattern pattern;
+        final boolean negated;
+        final boolean directoryOnly;
+
+        Rule(Pattern pattern, boolean negated, boolean directoryOnly) {
+            this.pattern = pattern;
+            this.negated = negated;
+            this.directoryOnly = directoryOnly;
+        }
+    }
+
+    private final Path baseDir;
+    private final Rule[] rules;
+
+    GitIgnoreFilter(Path baseDir, List<String> lines) {
+        this.baseDir = baseDir;
+        List<Rule> rules = new ArrayList<>();
+        for(String line: lines) {
+            Rule rule = parse(line);
+            if(rule != null) {
+                rules.add(rule);
+            }
+        }
+        this.rules = rules.toArray(new Rule[rules.size()]);
+    }
+
+    @Override
+    public boolean accept(Path path, boolean isDirectory) {
+        if(!path.startsWith(baseDir) || path.equals(baseDir)) {
+            return true;
+        }
+        String relPath = toSlashSeparated(baseDir.relativize(path));
+        for(int i = rules.length - 1; i >= 0; --i) {
+            Rule rule = rules[i];
+            if(rule.directoryOnly && !isDirectory) {
+                continue;
+            }
+            if(rule.pattern.matcher(relPath).matches()) {
+                return rule.negated;
+            }
+        }
+        return true;
+    }
+
+    private static String toSlashSeparated(Path relPath) {
+        StringBuilder sb = new StringBuilder();
+        for(Path name: relPath) {
+            if(sb.length() > 0) {
+                sb.append('/');
+            }
+            sb.append(name);
+        }
+        return sb.toString();
+    }
+
+    private static Rule parse(String line) {
+        String p = trimTrailingSpaces(line);
+        if(p.isEmpty() || p.startsWith("#")) {
+            return null;
+        }
+
+        boolean negated = false;
+        if(p.startsWith("!")) {
+            negated = true;
+            p = p.substring(1);
+        } else if(p.startsWith("\\!") || p.startsWith("\\#")) {
+            p = p.substring(1);
+        }
+
+        boolean directoryOnly = false;
+        if(p.endsWith("/")) {
+            directoryOnly = true;
+            p = p.substring(0, p.length() - 1);
+        }
+
+        boolean anchored = p.contains("/");
+        if(p.startsWith("/")) {
+            p = p.substring(1);
+        }
+        if(p.isEmpty()) {
+            return null;
+        }
+
+        String regex = (anchored ? "" : "(?:.*/)?") + globToRegex(p);
+        return new Rule(Pattern.compile(regex), negated, directoryOnly);
+    }
+
+    private static String trimTrailingSpaces(String line) {
+        int end = line.length();
+        while(end > 0 && line.charAt(end - 1) == ' ' && (end < 2 || line.charAt(end - 2) != '\\')) {
+            --end;
+        }
+        return line.substring(0, end);
+    }
+
+    private static String globToRegex(String glob) {
+        StringBuilder sb = new StringBuilder();
+        int n = glob.length();
+        for(int i = 0; i < n; ++i) {
+            char c = glob.charAt(i);
+            switch(c) {
+                case '*':
+                    if(i + 1 < n && glob.charAt(i + 1) == '*') {
+                        boolean leadingSlash = i == 0 || glob.charAt(i - 1) == '/';
+                        boolean trailingSlash = i + 2 < n && glob.charAt(i + 2) == '/';
+                        if(leadingSlash && trailingSlash) {
+                            sb.append("(?:.*/)?"); // "**/" matches zero or more directories
+                            i += 2;
+                        } else {
+                            sb.append(".*");
+                            i += 1;
+                        }
+                    } else {
+                        sb.append("[^/]*");
+                    }
+                    break;
+                case '?':
+                    sb.append("[^/]");
+                    break;
+                case '[':
+                    int close = glob.indexOf(']', i + 1);
+                    if(close < 0) {
+                        sb.append("\\[");
+                    } else {
+                        String set = glob.substring(i + 1, close);
+                        if(set.startsWith("!")) {
+                            set = "^" + set.substring(1);
+                        }
+                        sb.append('[').append(set.replace("\\", "\\\\")).append(']');
+                        i = close;
+                    }
+                    break;
+                case '\\':
+                    if(i + 1 < n) {
+                        sb.append(Pattern.quote(String.valueOf(glob.charAt(++i))));
+                    }
+                    break;
+                default:
+                    if(Character.isLetterOrDigit(c) || c == '/') {
+                        sb.append(c);
+                    } else {
+                        sb.append('\\').append(c);
+                    }
+            }
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        return "GitIgnoreFilter[" + baseDir + "]";
+    }
+}
@@ -0,0 +1,184 @@
+package org.fxmisc.livedirs;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+class PathNode {
+    /**
+     * Scans the given subtree, skipping entries rejected by the filter.
+     * The content of a rejected directory is not listed. The root itself is
+     * not subject to the filter.
+     */
+    public static PathNode getTree(Path root, PathFilter filter, AttributeReader reader) throws IOException {
+        return getTree(root, reader.read(root), filter, reader);
+    }
+
+    /**
+     * Scans the given subtree, whose root's attributes were already read.
+     */
+    static PathNode getTree(Path root, AttributeReader.Attributes attrs, PathFilter filter, AttributeReader reader) throws IOException {
+        if(attrs.basic.isDirectory()) {
+            Path[] childPaths;
+            try(Stream<Path> dirStream = Files.list(root)) {
+                childPaths = dirStream.toArray(Path[]::new);
+            }
+            List<PathNode> children = new ArrayList<>(childPaths.length);
+            boolean hasExclusions = false;
+            for(Path p: childPaths) {
+                AttributeReader.Attributes childAttrs = reader.read(p);
+                if(filter.accept(p, childAttrs.basic.isDirectory())) {
+                    children.add(getTree(p, childAttrs, filter, reader));
+                } else {
+                    hasExclusions = true;
+                }
+            }
+            // sort by the attributes already read, rather than stat again
+            children.sort(DirEntry.NODE_ORDER);
+            return directory(root, attrs, children, hasExclusions);
+        } else {
+            return file(root, attrs.basic.lastModifiedTime(), attrs.captured);
+        }
+    }
+
+    /**
+     * Lists the given directory and scans the entries accepted by the
+     * filter that are not among {@code knownNames}.
+     *
+     * @return the directory with only the new entries as children.
+     */
+    public static PathNode getNewEntries(Path dir, Set<Path> knownNames, PathFilter filter, AttributeReader reader) throws IOException {
+        AttributeReader.Attributes attrs = reader.read(dir);
+        List<PathNode> children = new ArrayList<>();
+        boolean hasExclusions = false;
+        try(DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for(Path p: stream) {
+                if(knownNames.contains(p.getFileName())) {
+                    continue;
+                }
+                AttributeReader.Attributes childAttrs = reader.read(p);
+                if(filter.accept(p, childAttrs.basic.isDirectory())) {
+                    children.add(getTree(p, childAttrs, filter, reader));
+                } else {
+                    hasExclusions = true;
+                }
+            }
+        }
+        return directory(dir, attrs, children, hasExclusions);
+    }
+
+    static PathNode file(Path path, FileTime lastModified) {
+        return new PathNode(path, false, Collections.emptyList(), lastModified, null, false, null);
+    }
+
+    static PathNode file(Path path, FileTime lastModified, EntryAttributes attributes) {
+        return new PathNode(path, false, Collections.emptyList(), lastModified, null, false, attributes);
+    }
+
+    static PathNode directory(Path path, List<PathNode> children) {
+        return new PathNode(path, true, children, null, null, false, null);
+    }
+
+    static PathNode directory(Path path, FileTime lastModified, List<PathNode> children) {
+        return new PathNode(path, true, children, lastModified, null, false, null);
+    }
+
+    static PathNode directory(Path path, FileTime lastModified, Object fileKey, List<PathNode> children, boolean hasExclusions) {
+        return new PathNode(path, true, children, lastModified, fileKey, hasExclusions, null);
+    }
+
+    static PathNode directory(Path path, FileTime lastModified, Object fileKey, List<PathNode> children, boolean hasExclusions, EntryAttributes attributes) {
+        return new PathNode(path, true, children, lastModified, fileKey, hasExclusions, attributes);
+    }
+
+    static PathNode directory(Path path, AttributeReader.Attributes attrs, List<PathNode> children, boolean hasExclusions) {
+        BasicFileAttributes basic = attrs.basic;
+        return new PathNode(path, true, children, basic.lastModifiedTime(), basic.fileKey(), hasExclusions, attrs.captured);
+    }
+
+    private final Path path;
+    private final boolean isDirectory;
+    private final List<PathNode> children;
+    private final FileTime lastModified;
+    private final Object fileKey;
+    private final boolean hasExclusions;
+    private final EntryAttributes attributes;
+
+    private PathNode(Path path, boolean isDirectory, List<PathNode> children, FileTime lastModified, Object fileKey, boolean hasExclusions, EntryAttributes attributes) {
+        this.path = path;
+        this.isDirectory = isDirectory;
+        this.children = children;
+        this.lastModified = lastModified;
+        this.fileKey = fileKey;
+        this.hasExclusions = hasExclusions;
+        this.attributes = attributes;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public boolean isDirectory() {
+        return isDirectory;
+    }
+
+    public List<PathNode> getChildren() {
+        return children;
+    }
+
+    public FileTime getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * File key of a directory, as in {@link BasicFileAttributes#fileKey()}.
+     */
+    public Object getFileKey() {
+        return fileKey;
+    }
+
+    /**
+     * Whether some entries of this directory were left out by a
+     * {@link PathFilter}.
+     */
+    public boolean hasExclusions() {
+        return hasExclusions;
+    }
+
+    /**
+     * Captured attributes, or {@code null} if none were captured.
+     */
+    public EntryAttributes getAttributes() {
+        return attributes;
+    }
+
+    /**
+     * Returns the descendant of this node at the given relative path,
+     * or {@code null} if there is no such node.
+     */
+    public PathNode find(Path relPath) {
+        PathNode node = this;
+        for(Path name: relPath) {
+            PathNode next = null;
+            for(PathNode child: node.children) {
+                if(child.getPath().getFileName().equals(name)) {
+                    next = child;
+                    break;
+                }
+            }
+            if(next == null) {
+                return null;
+            }
+            node = next;
+        }
+        return node;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,325 @@
+package org.fxmisc.livedirs;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * Map from absolute paths to values that answers "which keys are ancestors
+ * of (or equal to) this path" in time proportional to the length of the
+ * path, independent of the number of keys.
+ *
+ * <p>Keys are stored in a radix tree over their string form. Lookups walk
+ * the string of the queried path, which {@link Path} implementations cache,
+ * and do not allocate.
+ *
+ * <p>Not thread-safe.
+ */
+class PathTrie<V> {
+
+    private static final class Node<V> {
+        String label;
+        Node<V>[] children;
+        V value;
+
+        @SuppressWarnings("unchecked")
+        Node(String label) {
+            this.label = label;
+            this.children = (Node<V>[]) EMPTY;
+        }
+    }
+
+    private static final Node<?>[] EMPTY = new Node<?>[0];
+
+    private final Node<V> root = new Node<>("");
+    private int size = 0;
+
+    public int size() { return size; }
+
+    public boolean isEmpty() { return size == 0; }
+
+    public V get(Path key) {
+        String s = key.toString();
+        Node<V> n = root;
+        int pos = 0;
+        while(pos < s.length()) {
+            n = findChild(n, s.charAt(pos));
+            if(n == null || !s.startsWith(n.label, pos)) {
+                return null;
+            }
+            pos += n.label.length();
+        }
+        return n.value;
+    }
+
+    /**
+     * Associates {@code value} with {@code key}.
+     * @return the value previously associated with {@code key}, if any.
+     */
+    public V put(Path key, V value) {
+        assert value != null;
+        String s = key.toString();
+        Node<V> n = root;
+        int pos = 0;
+        while(pos < s.length()) {
+            Node<V> child = findChild(n, s.charAt(pos));
+            if(child == null) {
+                Node<V> leaf = new Node<>(s.substring(pos));
+                leaf.value = value;
+                addChild(n, leaf);
+                ++size;
+                return null;
+            }
+
+            int common = commonPrefixLength(child.label, s, pos);
+            if(common < child.label.length()) {
+                // split the edge into child
+                Node<V> mid = new Node<>(child.label.substring(0, common));
+                replaceChild(n, mid);
+                child.label = child.label.substring(common);
+                addChild(mid, child);
+                child = mid;
+            }
+            pos += common;
+            n = child;
+        }
+
+        V old = n.value;
+        n.value = value;
+        if(old == null) {
+            ++size;
+        }
+        return old;
+    }
+
+    /**
+     * Removes the value associated with {@code key}.
+     * @return the removed value, or {@code null} if there was none.
+     */
+    public V remove(Path key) {
+        String s = key.toString();
+        Node<V> parent = null;
+        Node<V> n = root;
+        int pos = 0;
+        while(pos < s.length()) {
+            Node<V> child = findChild(n, s.charAt(pos));
+            if(child == null || !s.startsWith(child.label, pos)) {
+                return null;
+            }
+            pos += child.label.length();
+            parent = n;
+            n = child;
+        }
+
+        V old = n.value;
+        if(old == null) {
+            return null;
+        }
+        n.value = null;
+        --size;
+
+        // keep the tree compressed
+        if(parent != null) {
+            if(n.children.length == 0) {
+                removeChild(parent, n);
+                if(parent != root && parent.value == null && parent.children.length == 1) {
+                    mergeWithOnlyChild(parent);
+                }
+            } else if(n.children.length == 1) {
+                mergeWithOnlyChild(n);
+            }
+        }
+        return old;
+    }
+
+    /**
+     * Returns whether any key is an ancestor of, or equal to, {@code path}.
+     */
+    public boolean containsPrefixOf(Path path) {
+        return longestPrefixOf(path) != null;
+    }
+
+    /**
+     * Returns the value of the deepest key that is an ancestor of, or equal
+     * to, {@code path}, or {@code null} if there is no such key.
+     */
+    public V longestPrefixOf(Path path) {
+        String s = path.toString();
+        char sep = separator(path);
+        V res = null;
+        Node<V> n = root;
+        int pos = 0;
+        for(;;) {
+            if(n.value != null && isBoundary(s, pos, sep)) {
+                res = n.value;
+            }
+            if(pos == s.length()) {
+                return res;
+            }
+            n = findChild(n, s.charAt(pos));
+            if(n == null || !s.startsWith(n.label, pos)) {
+                return res;
+            }
+            pos += n.label.length();
+        }
+    }
+
+    /**
+     * Applies {@code action} to the values of all keys that are ancestors
+     * of, or equal to, {@code path}, from the shallowest to the deepest.
+     */
+    public void forEachPrefixOf(Path path, Consumer<? super V> action) {
+        String s = path.toString();
+        char sep = separator(path);
+        Node<V> n = root;
+        int pos = 0;
+        for(;;) {
+            if(n.value != null && isBoundary(s, pos, sep)) {
+                action.accept(n.value);
+            }
+            if(pos == s.length()) {
+                return;
+            }
+            n = findChild(n, s.charAt(pos));
+            if(n == null || !s.startsWith(n.label, pos)) {
+                return;
+            }
+            pos += n.label.length();
+        }
+    }
+
+    /**
+     * Applies {@code action} to the values of all keys that are descendants
+     * of, or equal to, {@code path}.
+     */
+    public void forEachUnder(Path path, Consumer<? super V> action) {
+        String s = path.toString();
+        char sep = separator(path);
+        Node<V> n = root;
+        int pos = 0;
+        while(pos < s.length()) {
+            n = findChild(n, s.charAt(pos));
+            if(n == null) {
+                return;
+            }
+            int common = commonPrefixLength(n.label, s, pos);
+            if(pos + common == s.length()) {
+                // the rest of the subtree is keyed by extensions of s
+                forEachUnder(n, n.label.length() - common, s, sep, action);
+                return;
+            } else if(common < n.label.length()) {
+                return;
+            }
+            pos += common;
+        }
+        forEachUnder(n, 0, s, sep, action);
+    }
+
+    private void forEachUnder(Node<V> n, int extra, String prefix, char sep, Consumer<? super V> action) {
+        // extra is the number of characters of n's key beyond the prefix.
+        // Keys extending the prefix only denote descendants if the first
+        // extra character is a separator (or the prefix ends with one).
+        if(extra > 0) {
+            if(startsChild(n.label, n.label.length() - extra, prefix, sep)) {
+                forEachValue(n, action);
+            }
+        } else {
+            if(n.value != null) {
+                action.accept(n.value);
+            }
+            for(Node<V> child: n.children) {
+                if(startsChild(child.label, 0, prefix, sep)) {
+                    forEachValue(child, action);
+                }
+            }
+        }
+    }
+
+    private static boolean startsChild(String label, int i, String prefix, char sep) {
+        return label.charAt(i) == sep
+                || (!prefix.isEmpty() && prefix.charAt(prefix.length() - 1) == sep);
+    }
+
+    private void forEachValue(Node<V> n, Consumer<? super V> action) {
+        if(n.value != null) {
+            action.accept(n.value);
+        }
+        for(Node<V> child: n.children) {
+            forEachValue(child, action);
+        }
+    }
+
+    private static char separator(Path path) {
+        return path.getFileSystem().getSeparator().charAt(0);
+    }
+
+    private static boolean isBoundary(String s, int pos, char sep) {
+        return pos == s.length()
+                || s.charAt(pos) == sep
+                || (pos > 0 && s.charAt(pos - 1) == sep);
+    }
+
+    private static int commonPrefixLength(String label, String s, int pos) {
+        int n = Math.min(label.length(), s.length() - pos);
+        int i = 0;
+        while(i < n && label.charAt(i) == s.charAt(pos + i)) {
+            ++i;
+        }
+        return i;
+    }
+
+    private static <V> int indexOf(Node<V> parent, char c) {
+        Node<V>[] children = parent.children;
+        int lo = 0;
+        int hi = children.length - 1;
+        while(lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            char m = children[mid].label.charAt(0);
+            if(m < c) {
+                lo = mid + 1;
+            } else if(m > c) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(lo + 1);
+    }
+
+    private static <V> Node<V> findChild(Node<V> parent, char c) {
+        int i = indexOf(parent, c);
+        return i >= 0 ? parent.children[i] : null;
+    }
+
+    private static <V> void addChild(Node<V> parent, Node<V> child) {
+        int i = -(indexOf(parent, child.label.charAt(0)) + 1);
+        Node<V>[] children = Arrays.copyOf(parent.children, parent.children.length + 1);
+        System.arraycopy(children, i, children, i + 1, children.length - i - 1);
+        children[i] = child;
+        parent.children = children;
+    }
+
+    private static <V> void replaceChild(Node<V> parent, Node<V> child) {
+        parent.children[indexOf(parent, child.label.charAt(0))] = child;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <V> void removeChild(Node<V> parent, Node<V> child) {
+        int i = indexOf(parent, child.label.charAt(0));
+        Node<V>[] children = parent.children;
+        if(children.length == 1) {
+            parent.children = (Node<V>[]) EMPTY;
+        } else {
+            Node<V>[] res = Arrays.copyOf(children, children.length - 1);
+            System.arraycopy(children, i + 1, res, i, children.length - i - 1);
+            parent.children = res;
+        }
+    }
+
+    private static <V> void mergeWithOnlyChild(Node<V> n) {
+        Node<V> child = n.children[0];
+        n.label = n.label + child.label;
+        n.value = child.value;
+        n.children = child.children;
+    }
+}
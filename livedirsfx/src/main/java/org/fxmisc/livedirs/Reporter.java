@@ -0,0 +1,24 @@
+package org.fxmisc.livedirs;
+
+import java.nio.file.Path;
+
+interface Reporter<I> {
+    void reportCreation(Path baseDir, Path relPath, I initiator);
+    void reportDeletion(Path baseDir, Path relPath, I initiator);
+    void reportModification(Path baseDir, Path relPath, I initiator);
+    void reportMove(Path baseDir, Path relPath, Path oldRelPath, I initiator);
+    void reportError(Throwable error);
+
+    /**
+     * Returns a reporter that discards all reports.
+     */
+    static <I> Reporter<I> silent() {
+        return new Reporter<I>() {
+            @Override public void reportCreation(Path baseDir, Path relPath, I initiator) {}
+            @Override public void reportDeletion(Path baseDir, Path relPath, I initiator) {}
+            @Override public void reportModification(Path baseDir, Path relPath, I initiator) {}
+            @Override public void reportMove(Path baseDir, Path relPath, Path oldRelPath, I initiator) {}
+            @Override public void reportError(Throwable error) {}
+        };
+    }
+}
@@ -0,0 +1,70 @@
+package org.fxmisc.livedirs;
+
+import java.nio.file.Path;
+
+/**
+ * New content of a followed file, see {@link LiveDirs#follow(Path)}.
+ */
+public final class TailUpdate {
+
+    /**
+     * Types of tail updates.
+     */
+    public enum Type {
+        /** Content was appended to the file. */
+        APPENDED,
+
+        /**
+         * The file got shorter than the content followed so far. The
+         * content of this update starts at the beginning of the file.
+         */
+        TRUNCATED,
+
+        /**
+         * The file was replaced by another one, e.g. by log rotation. The
+         * content of this update starts at the beginning of the new file.
+         */
+        REPLACED,
+    }
+
+    private final Path path;
+    private final Type type;
+    private final long offset;
+    private final byte[] content;
+
+    TailUpdate(Path path, Type type, long offset, byte[] content) {
+        this.path = path;
+        this.type = type;
+        this.offset = offset;
+        this.content = content;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Position of the content within the file.
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * The new bytes. A multi-byte character may be split between
+     * consecutive updates. The array is shared by all observers of the
+     * stream and must not be modified.
+     */
+    public byte[] getContent() {
+        return content;
+    }
+
+    @Override
+    public String toString() {
+        return type + " " + path + " [" + offset + ", " + (offset + content.length) + ")";
+    }
+}
@@ -0,0 +1,300 @@
+package org.fxmisc.livedirs;
+
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+class TopLevelDir<I> extends DirEntry {
+    private Reporter<I> reporter;
+    private TreeListener listener = TreeListener.NONE;
+
+    TopLevelDir(Path path, Reporter<I> reporter) {
+        super(path);
+        this.reporter = reporter;
+    }
+
+    void setReporter(Reporter<I> reporter) {
+        this.reporter = reporter;
+    }
+
+    void setListener(TreeListener listener) {
+        this.listener = listener;
+    }
+
+    public void addFile(Path relPath, FileTime lastModified, EntryAttributes attributes, I initiator) {
+        updateFile(relPath, lastModified, attributes, initiator);
+    }
+
+    public void updateModificationTime(Path relPath, FileTime lastModified, EntryAttributes attributes, I initiator) {
+        updateFile(relPath, lastModified, attributes, initiator);
+    }
+
+    private void updateFile(Path relPath, FileTime lastModified, EntryAttributes attributes, I initiator) {
+        PathEntry entry = resolve(relPath);
+        if(entry == null || entry.isDirectory()) {
+            sync(relPath, PathNode.file(getPath().resolve(relPath), lastModified, attributes), initiator);
+        } else {
+            boolean modified = entry.asFileEntry().updateModificationTime(lastModified);
+            modified |= entry.updateAttributes(attributes);
+            if(modified) {
+                reporter.reportModification(getPath(), relPath, initiator);
+            }
+        }
+    }
+
+    /**
+     * Applies a modification of an existing file, given the fingerprint of
+     * its new content, or {@code null} if it was not fingerprinted. Does not
+     * create the file if it is missing.
+     */
+    public void updateContent(Path relPath, FileTime lastModified, Long contentHash, EntryAttributes attributes, I initiator) {
+        PathEntry entry = resolve(relPath);
+        if(entry == null || entry.isDirectory()) {
+            return;
+        }
+        FileEntry file = entry.asFileEntry();
+        boolean modified = contentHash != null
+                ? file.updateContent(lastModified, contentHash)
+                : file.updateModificationTime(lastModified);
+        modified |= file.updateAttributes(attributes);
+        if(modified) {
+            reporter.reportModification(getPath(), relPath, initiator);
+        }
+    }
+
+    public void addDirectory(Path relPath, I initiator) {
+        PathEntry entry = resolve(relPath);
+        if(entry == null || !entry.isDirectory()) {
+            sync(relPath, PathNode.directory(getPath().resolve(relPath), Collections.emptyList()), initiator);
+        }
+    }
+
+    public void sync(PathNode tree, I initiator) {
+        sync(getPath().relativize(tree.getPath()), tree, initiator);
+    }
+
+    private void sync(Path relPath, PathNode tree, I initiator) {
+        if(isEmpty(relPath)) {
+            if(tree.isDirectory()) {
+                syncContent(this, relPath, tree, initiator);
+            } else {
+                raise(new IllegalArgumentException("Cannot replace top-level directory " + getPath() + " with a file"));
+            }
+        } else {
+            Path parentRelPath = relPath.getParent();
+            PathEntry parent = parentRelPath == null ? this : resolve(parentRelPath);
+            if(parent == null || !parent.isDirectory()) {
+                raise(new NoSuchElementException("Parent directory for " + relPath + " does not exist within " + getPath()));
+            } else {
+                syncChild(parent.asDirEntry(), relPath, tree, initiator);
+            }
+        }
+    }
+
+    private void syncContent(DirEntry dir, Path dirRelPath, PathNode tree, I initiator) {
+        if(tree.getLastModified() != null) {
+            // the tree was scanned, not made up
+            dir.setLastModified(tree.getLastModified());
+            dir.setHasExclusions(tree.hasExclusions());
+        }
+        dir.updateAttributes(tree.getAttributes());
+        if(tree.getFileKey() != null) {
+            dir.setFileKey(tree.getFileKey());
+        }
+
+        Set<Path> desiredChildren = new HashSet<>();
+        for(PathNode ch: tree.getChildren()) {
+            desiredChildren.add(ch.getPath().getFileName());
+        }
+
+        // remove undesired children
+        for(PathEntry ch: new ArrayList<>(dir.getChildren())) {
+            Path name = ch.getName();
+            if(!desiredChildren.contains(name)) {
+                removeEntry(ch, dirRelPath.resolve(name), null);
+            }
+        }
+
+        // synchronize desired children, in the order of the directory, so
+        // that new children are appended rather than inserted
+        List<PathNode> ordered = new ArrayList<>(tree.getChildren());
+        ordered.sort(NODE_ORDER);
+        for(PathNode ch: ordered) {
+            syncChild(dir, dirRelPath.resolve(ch.getPath().getFileName()), ch, initiator);
+        }
+    }
+
+    private void syncChild(DirEntry parent, Path relPath, PathNode tree, I initiator) {
+        Path childName = relPath.getFileName();
+        PathEntry child = parent.getRelChild(childName);
+        if(child != null && child.isDirectory() != tree.isDirectory()) {
+            removeEntry(child, relPath, null);
+            child = null;
+        }
+        if(child == null) {
+            if(tree.isDirectory()) {
+                DirEntry dirChild = new DirEntry(intern(childName));
+                addEntry(parent, dirChild);
+                reporter.reportCreation(getPath(), relPath, initiator);
+                syncContent(dirChild, relPath, tree, initiator);
+            } else {
+                FileEntry fileChild = new FileEntry(intern(childName), tree.getLastModified());
+                fileChild.updateAttributes(tree.getAttributes());
+                addEntry(parent, fileChild);
+                reporter.reportCreation(getPath(), relPath, initiator);
+            }
+        } else {
+            if(child.isDirectory()) {
+                syncContent(child.asDirEntry(), relPath, tree, initiator);
+            } else {
+                boolean modified = child.asFileEntry().updateModificationTime(tree.getLastModified());
+                modified |= child.updateAttributes(tree.getAttributes());
+                if(modified) {
+                    reporter.reportModification(getPath(), relPath, initiator);
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes the entries rejected by the given filter.
+     *
+     * @param removedDirs receives the paths of removed directories.
+     */
+    void removeExcluded(PathFilter filter, I initiator, Consumer<Path> removedDirs) {
+        removeExcluded(this, filter, initiator, removedDirs);
+    }
+
+    private void removeExcluded(DirEntry dir, PathFilter filter, I initiator, Consumer<Path> removedDirs) {
+        for(PathEntry child: new ArrayList<>(dir.getChildren())) {
+            Path path = child.getPath();
+            if(!filter.accept(path, child.isDirectory())) {
+                removeEntry(child, getPath().relativize(path), initiator);
+                dir.setHasExclusions(true);
+                if(child.isDirectory()) {
+                    removedDirs.accept(path);
+                }
+            } else if(child.isDirectory()) {
+                removeExcluded(child.asDirEntry(), filter, initiator, removedDirs);
+            }
+        }
+    }
+
+    /**
+     * Passes the paths of directories that have excluded entries to the
+     * given consumer.
+     */
+    void forEachDirWithExclusions(Consumer<Path> action) {
+        forEachDirWithExclusions(this, action);
+    }
+
+    private static void forEachDirWithExclusions(DirEntry dir, Consumer<Path> action) {
+        if(dir.hasExclusions()) {
+            action.accept(dir.getPath());
+        }
+        for(PathEntry child: dir.getChildren()) {
+            if(child.isDirectory()) {
+                forEachDirWithExclusions(child.asDirEntry(), action);
+            }
+        }
+    }
+
+    /**
+     * Reports deletion of all entries in this tree, except for subtrees
+     * rooted at directories for which {@code retained} holds.
+     */
+    void reportContentDeletion(Predicate<Path> retained, I initiator) {
+        for(PathEntry child: getChildren()) {
+            reportDeletionRecursively(child, child.getName(), retained, initiator);
+        }
+    }
+
+    private void reportDeletionRecursively(PathEntry entry, Path relPath, Predicate<Path> retained, I initiator) {
+        if(entry.isDirectory()) {
+            if(retained.test(getPath().resolve(relPath))) {
+                return;
+            }
+            for(PathEntry child: entry.asDirEntry().getChildren()) {
+                reportDeletionRecursively(child, relPath.resolve(child.getName()), retained, initiator);
+            }
+        }
+        reporter.reportDeletion(getPath(), relPath, initiator);
+    }
+
+    /**
+     * Moves the entry at {@code relFrom} to {@code relTo}, keeping the entry
+     * and its subtree.
+     *
+     * @return {@code false} if the move could not be applied to this tree,
+     * because the entry or the target directory is missing, or the target
+     * is occupied.
+     */
+    public boolean move(Path relFrom, Path relTo, I initiator) {
+        PathEntry entry = resolve(relFrom);
+        if(entry == null || entry == this || isEmpty(relTo)) {
+            return false;
+        }
+        Path relToParent = relTo.getParent();
+        PathEntry target = relToParent == null ? this : resolve(relToParent);
+        Path name = relTo.getFileName();
+        if(target == null || !target.isDirectory() || target.getRelChild(name) != null) {
+            return false;
+        }
+
+        // cannot move a directory into itself
+        for(PathEntry e = target; e != null; e = e.getParent()) {
+            if(e == entry) {
+                return false;
+            }
+        }
+
+        DirEntry parent = entry.getParent();
+        listener.entryRemoved(parent, entry, parent.remove(entry));
+        entry.setName(intern(name));
+        entry.invalidatePaths();
+        addEntry(target.asDirEntry(), entry);
+        reporter.reportMove(getPath(), relTo, relFrom, initiator);
+        return true;
+    }
+
+    public void remove(Path relPath, I initiator) {
+        PathEntry entry = resolve(relPath);
+        if(entry != null && entry != this) {
+            removeEntry(entry, relPath, initiator);
+        }
+    }
+
+    private void addEntry(DirEntry parent, PathEntry entry) {
+        listener.entryAdded(parent, entry, parent.insert(entry));
+    }
+
+    private void removeEntry(PathEntry entry, Path relPath, I initiator) {
+        signalDeletionRecursively(entry, relPath, initiator);
+        DirEntry parent = entry.getParent();
+        listener.entryRemoved(parent, entry, parent.remove(entry));
+    }
+
+    private void signalDeletionRecursively(PathEntry entry, Path relPath, I initiator) {
+        if(entry.isDirectory()) {
+            for(PathEntry child: entry.asDirEntry().getChildren()) {
+                signalDeletionRecursively(child, relPath.resolve(child.getName()), initiator);
+            }
+        }
+        reporter.reportDeletion(getPath(), relPath, initiator);
+    }
+
+    private void raise(Throwable t) {
+        try {
+            throw t;
+        } catch(Throwable e) {
+            reporter.reportError(e);
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package org.fxmisc.livedirs;
+
+/**
+ * Receives the structural changes of directory trees, as they are made, so
+ * that a view can mirror the trees. Unlike a {@link Reporter}, a listener is
+ * notified once per change of an entry, even if the entry appears under
+ * several top-level directories: a nested top-level directory may be a
+ * directory entry within the tree of an enclosing one.
+ */
+interface TreeListener {
+    TreeListener NONE = new TreeListener() {
+        @Override public void entryAdded(DirEntry parent, PathEntry entry, int index) {}
+        @Override public void entryRemoved(DirEntry parent, PathEntry entry, int index) {}
+    };
+
+    /**
+     * Called after an entry was inserted at the given index among the
+     * children of {@code parent}, or among the top-level directories if
+     * {@code parent} is {@code null}. A moved entry is removed and added
+     * again, with its subtree.
+     */
+    void entryAdded(DirEntry parent, PathEntry entry, int index);
+
+    /**
+     * Called after an entry was removed from the given index.
+     */
+    void entryRemoved(DirEntry parent, PathEntry entry, int index);
+}
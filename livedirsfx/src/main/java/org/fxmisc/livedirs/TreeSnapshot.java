@@ -0,0 +1,196 @@
+package org.fxmisc.livedirs;
+
+import static java.nio.charset.StandardCharsets.*;
+import static java.nio.file.StandardCopyOption.*;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Compact binary form of a scanned directory tree, used to populate the
+ * directory model on startup before the file-system has been rescanned.
+ *
+ * <p>A snapshot stores, for every entry, its name, whether it is a
+ * directory, and its last modification time. Directories are also marked
+ * if some of their entries were excluded by a {@link PathFilter}. Paths are
+ * rebuilt from the names when the snapshot is read.
+ */
+class TreeSnapshot {
+    private static final int MAGIC = 0x4C445332; // "LDS2"
+    private static final long NO_TIME = Long.MIN_VALUE;
+
+    private static final int DIRECTORY = 1;
+    private static final int HAS_EXCLUSIONS = 2;
+
+    /**
+     * Returns the snapshot file for the given top-level directory within
+     * the given cache directory.
+     */
+    static Path fileFor(Path cacheDir, Path root) {
+        UUID id = UUID.nameUUIDFromBytes(root.toString().getBytes(UTF_8));
+        return cacheDir.resolve(id + ".snapshot");
+    }
+
+    static void write(PathNode tree, Path file) throws IOException {
+        Files.createDirectories(file.getParent());
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeUTF(tree.getPath().toString());
+            writeNode(out, tree);
+        }
+        Files.move(tmp, file, REPLACE_EXISTING, ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads the snapshot of the given top-level directory.
+     *
+     * @return the snapshot tree, or {@code null} if there is no snapshot
+     * of {@code root} in {@code file}.
+     */
+    static PathNode read(Path file, Path root) throws IOException {
+        if(!Files.exists(file)) {
+            return null;
+        }
+        try(DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if(in.readInt() != MAGIC) {
+                throw new StreamCorruptedException("Not a directory snapshot: " + file);
+            }
+            if(!in.readUTF().equals(root.toString())) {
+                return null;
+            }
+            int flags = in.readByte();
+            in.readUTF(); // root's name, already known
+            return readNode(in, root, flags);
+        }
+    }
+
+    /**
+     * Brings the snapshot up to date with the file-system. Only directories
+     * whose modification time differs from the snapshot are listed; entries
+     * of the others are taken from the snapshot and only their attributes
+     * are read. Directories that had excluded entries are always listed,
+     * since the filter may have changed since the snapshot was taken.
+     */
+    static PathNode validate(PathNode snapshot, PathFilter filter, AttributeReader reader) throws IOException {
+        Path root = snapshot.getPath();
+        PathNode res = validate(root, snapshot, filter, reader);
+        if(res == null) {
+            throw new NoSuchFileException(root.toString());
+        }
+        return res;
+    }
+
+    private static PathNode validate(Path path, PathNode snapshot, PathFilter filter, AttributeReader reader) throws IOException {
+        AttributeReader.Attributes attrs;
+        try {
+            attrs = reader.read(path);
+        } catch(NoSuchFileException e) {
+            return null;
+        }
+        return validate(path, attrs, snapshot, filter, reader);
+    }
+
+    private static PathNode validate(Path path, AttributeReader.Attributes attrs, PathNode snapshot, PathFilter filter, AttributeReader reader) throws IOException {
+        FileTime lastModified = attrs.basic.lastModifiedTime();
+        if(!attrs.basic.isDirectory()) {
+            return PathNode.file(path, lastModified, attrs.captured);
+        } else if(snapshot == null || !snapshot.isDirectory()) {
+            return PathNode.getTree(path, attrs, filter, reader);
+        }
+
+        List<PathNode> children = new ArrayList<>();
+        boolean hasExclusions = false;
+        if(lastModified.equals(snapshot.getLastModified()) && !snapshot.hasExclusions()) {
+            // no entries were added or removed
+            for(PathNode ch: snapshot.getChildren()) {
+                if(!filter.accept(ch.getPath(), ch.isDirectory())) {
+                    hasExclusions = true;
+                    continue;
+                }
+                PathNode child = validate(ch.getPath(), ch, filter, reader);
+                if(child != null) {
+                    children.add(child);
+                }
+            }
+        } else {
+            Map<Path, PathNode> old = new HashMap<>();
+            for(PathNode ch: snapshot.getChildren()) {
+                old.put(ch.getPath().getFileName(), ch);
+            }
+            List<Path> entries;
+            try(Stream<Path> dirStream = Files.list(path)) {
+                entries = new ArrayList<>();
+                dirStream.forEach(entries::add);
+            }
+            for(Path entry: entries) {
+                AttributeReader.Attributes entryAttrs;
+                try {
+                    entryAttrs = reader.read(entry);
+                } catch(NoSuchFileException e) {
+                    continue;
+                }
+                if(!filter.accept(entry, entryAttrs.basic.isDirectory())) {
+                    hasExclusions = true;
+                    continue;
+                }
+                children.add(validate(entry, entryAttrs, old.get(entry.getFileName()), filter, reader));
+            }
+        }
+        return PathNode.directory(path, attrs, children, hasExclusions);
+    }
+
+    private static void writeNode(DataOutputStream out, PathNode node) throws IOException {
+        int flags = 0;
+        if(node.isDirectory()) {
+            flags |= DIRECTORY;
+            if(node.hasExclusions()) {
+                flags |= HAS_EXCLUSIONS;
+            }
+        }
+        out.writeByte(flags);
+        Path name = node.getPath().getFileName();
+        out.writeUTF(name != null ? name.toString() : "");
+        FileTime lastModified = node.getLastModified();
+        out.writeLong(lastModified != null ? lastModified.to(TimeUnit.NANOSECONDS) : NO_TIME);
+        if(node.isDirectory()) {
+            List<PathNode> children = node.getChildren();
+            out.writeInt(children.size());
+            for(PathNode child: children) {
+                writeNode(out, child);
+            }
+        }
+    }
+
+    private static PathNode readNode(DataInputStream in, Path path, int flags) throws IOException {
+        long time = in.readLong();
+        FileTime lastModified = time != NO_TIME ? FileTime.from(time, TimeUnit.NANOSECONDS) : null;
+        if((flags & DIRECTORY) == 0) {
+            return PathNode.file(path, lastModified);
+        }
+
+        int n = in.readInt();
+        List<PathNode> children = new ArrayList<>(n);
+        for(int i = 0; i < n; ++i) {
+            int childFlags = in.readByte();
+            Path child = path.resolve(in.readUTF());
+            children.add(readNode(in, child, childFlags));
+        }
+        return PathNode.directory(path, lastModified, null, children, (flags & HAS_EXCLUSIONS) != 0);
+    }
+}